@@ -15,6 +15,8 @@
  */
 package com.beyondar.android.util.task;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import android.os.Handler;
 import android.os.Looper;
 
@@ -25,12 +27,85 @@ import com.beyondar.android.util.annotation.AnnotationsUtils;
  */
 public abstract class BaseTask implements Task {
 
+	/** Priority for the tasks that can wait */
+	public static final int PRIORITY_LOW = -10;
+	/** Default priority of the tasks */
+	public static final int PRIORITY_NORMAL = 0;
+	/** Priority for the tasks that the user is waiting for */
+	public static final int PRIORITY_HIGH = 10;
+
+	/** The task is never removed under memory pressure (default) */
+	public static final int SHED_NEVER = 0;
+	/**
+	 * The queued task is removed under memory pressure and onKillTask() is
+	 * called with {@link TaskResult#TASK_MESSAGE_SHED}
+	 */
+	public static final int SHED_DROP = 1;
+	/**
+	 * The queued task is put aside under memory pressure and queued again
+	 * after {@link TaskExecutor#setShedDeferDelay(long)}
+	 */
+	public static final int SHED_DEFER = 2;
+
 	private final Handler mHandler = new Handler(Looper.getMainLooper());
 	private long mId;
 	private boolean mRunInBackground;
 	private boolean mRunning;
 	private boolean mWaitTaskToFinish;
 	private long mTaskToWait;
+	private volatile boolean mCancelled;
+	private volatile long mSubmitTime;
+	private volatile long mStartTime;
+	private volatile long mWaitStartTime;
+	private static final long[] NO_INPUTS = new long[0];
+	/* Tasks whose results this task takes, see addInput() */
+	private long[] mInputIds = NO_INPUTS;
+	private TaskResult[] mInputs;
+	private boolean mInputsRegistered;
+	private volatile TaskFuture mFuture;
+	private RetryPolicy mRetryPolicy;
+	private int mAttempt;
+	private TaskGroup mTaskGroup;
+	private volatile int mPriority = PRIORITY_NORMAL;
+	/* Highest priority of the queued tasks waiting for this one */
+	private volatile int mInheritedPriority = Integer.MIN_VALUE;
+	private volatile int mShedPolicy = SHED_NEVER;
+	/* Set when the task releases its thread to continue later */
+	private volatile boolean mSuspended;
+	/* Set when a copy of the task is executed, see HedgeableTask */
+	private volatile HedgeGroup mHedge;
+	private static final int HEDGE_NONE = 0;
+	private static final int HEDGE_ATTACHED = 1;
+	private static final int HEDGE_FINISHED = 2;
+	/*
+	 * HEDGE_FINISHED once the execution has finished without copy, so a copy
+	 * can't be attached anymore
+	 */
+	private volatile int mHedgeState = HEDGE_NONE;
+	private static final AtomicIntegerFieldUpdater<BaseTask> HEDGE_STATE = AtomicIntegerFieldUpdater
+			.newUpdater(BaseTask.class, "mHedgeState");
+
+	private static final AtomicIntegerFieldUpdater<BaseTask> PROGRESS_PENDING = AtomicIntegerFieldUpdater
+			.newUpdater(BaseTask.class, "mProgressPending");
+	/* 1 while the task is waiting in the ProgressDispatcher */
+	private volatile int mProgressPending;
+	private volatile long mProgressDone;
+	private volatile long mProgressTotal;
+	/* Next task in the list of the ProgressDispatcher */
+	BaseTask mNextProgress;
+
+	private static final int RESOURCES_UNDECIDED = 0;
+	private static final int RESOURCES_MEASURED = 1;
+	private static final int RESOURCES_SKIPPED = 2;
+	/* If the resources of the current execution are measured, see ResourceMeter */
+	private volatile int mResourceSampling = RESOURCES_UNDECIDED;
+	/* Resources used by the current execution, added after each run */
+	private long mRunTime;
+	private long mCpuTime;
+	private long mAllocatedBytes;
+	private volatile long mLastRunTime = -1;
+	private volatile long mLastCpuTime = -1;
+	private volatile long mLastAllocatedBytes = -1;
 
 	/**
 	 * Create a new {@link BaseTask} with an specific ID
@@ -87,8 +162,51 @@ public abstract class BaseTask implements Task {
 	 * @return The output of this task ({@link TaskResult}
 	 */
 	public TaskResult executeTask() {
+		TaskResult out = startExecution();
+		if (out != null) {
+			return out;
+		}
+		return runAndFinish();
+	}
+
+	/**
+	 * Prepare the task to call runTask(): check if it has been cancelled and
+	 * check its dependencies
+	 * 
+	 * @return null if runTask() can be called, otherwise the output of this
+	 *         task
+	 */
+	TaskResult startExecution() {
+		mStartTime = System.nanoTime();
 		mRunning = true;
 		TaskResult out;
+		boolean resumed = mSuspended;
+		mSuspended = false;
+
+		if (!mCancelled && !isOwnerAlive()) {
+			mCancelled = true;
+		}
+		if (mCancelled) {
+			mAttempt = 0;
+			out = createCancelledResult();
+			if (hasLostHedge() || !isOwnerAlive()) {
+				mRunning = false;
+				return out;
+			}
+			onKillTask(out);
+			mRunning = false;
+			return out;
+		}
+
+		if (resumed) {
+			return null;
+		}
+		HedgeGroup hedge = mHedge;
+		if (mHedgeState == HEDGE_FINISHED || (hedge != null && hedge.getWinner() != null)) {
+			// The task is executed again
+			mHedge = null;
+			mHedgeState = HEDGE_NONE;
+		}
 
 		// out = task.preprocessor();
 		// if (out == null) {
@@ -117,32 +235,171 @@ public abstract class BaseTask implements Task {
 			mRunning = false;
 			return out;
 		}
+		mAttempt++;
+		return null;
+	}
+
+	/**
+	 * Call runTask() and process its result
+	 */
+	private TaskResult runAndFinish() {
+		TaskResult out;
 		if (AnnotationsUtils.hasUiAnnotation(this,
 				RunnableTask.__RUN_TASK_METHOD_NAME__)) {
 			out = runOnUiThreadRun(this);
 		} else {
-			out = runTask();
+			try {
+				out = runTask();
+			} catch (RuntimeException e) {
+				out = new TaskResult(mId, e);
+			}
 		}
+		return finishExecution(out);
+	}
 
+	/**
+	 * Process the output of runTask(): call onFinish() or onKillTask(), unless
+	 * the task has to be retried or continued
+	 * 
+	 * @param out
+	 *            The output of runTask()
+	 * @return The output of this task
+	 */
+	TaskResult finishExecution(TaskResult out) {
+		if (mSuspended) {
+			mRunning = false;
+			return TaskResult.CONTINUE;
+		}
 		if (out == null) {
 			out = new TaskResult(mId, false, TaskResult.TASK_MESSAGE_UNKNOWN,
 					null, null);
 		}
+		boolean retry = out.error() && canRetry() && mRetryPolicy != null
+				&& !mCancelled && mRetryPolicy.canRetry(out, mAttempt);
+		if (!retry && !claimResult()) {
+			// The other copy has finished first
+			mAttempt = 0;
+			mRunning = false;
+			return createCancelledResult();
+		}
 		if (out.error()) {
+			if (retry) {
+				mRunning = false;
+				return new TaskResult(mId, true, TaskResult.TASK_MESSAGE_RETRY,
+						"Retrying after the attempt " + mAttempt, out, false);
+			}
+			mAttempt = 0;
 			onKillTask(out);
 			mRunning = false;
 			return out;
 		}
 
+		mAttempt = 0;
+		dispatchOnFinish();
+		mRunning = false;
+		return out;
+	}
+
+	/**
+	 * Publish the progress of the task from runTask(). The value is delivered
+	 * to {@link #onProgressUpdate(long, long)} in the UI thread by the
+	 * {@link ProgressDispatcher}: if the task publishes faster than the
+	 * dispatcher delivers, only the last value is delivered. This method
+	 * doesn't block nor allocate, so it can be called for each processed item
+	 * 
+	 * @param done
+	 *            Amount of work done
+	 * @param total
+	 *            Total amount of work, or 0 if unknown
+	 */
+	protected final void publishProgress(long done, long total) {
+		mProgressDone = done;
+		mProgressTotal = total;
+		if (PROGRESS_PENDING.compareAndSet(this, 0, 1)) {
+			ProgressDispatcher.getInstance().enqueue(this);
+		}
+	}
+
+	/**
+	 * Override this method to show the progress published with
+	 * {@link #publishProgress(long, long)}. It is executed in the UI thread.
+	 * The last update can arrive after onFinish()
+	 * 
+	 * @param done
+	 *            Amount of work done
+	 * @param total
+	 *            Total amount of work, or 0 if unknown
+	 */
+	public void onProgressUpdate(long done, long total) {
+	}
+
+	/**
+	 * Called by the {@link ProgressDispatcher} in the UI thread
+	 */
+	void deliverProgress() {
+		// Clear it first, so a new value is not lost
+		PROGRESS_PENDING.set(this, 0);
+		onProgressUpdate(mProgressDone, mProgressTotal);
+	}
+
+	/**
+	 * Release the thread when runTask() returns. The {@link TaskExecutor}
+	 * will call executeTask() again later, without checking the dependencies
+	 */
+	void suspend() {
+		mSuspended = true;
+	}
+
+	/**
+	 * Check if the task has released its thread to continue later
+	 * 
+	 * @return true if the task is suspended
+	 */
+	boolean isSuspended() {
+		return mSuspended;
+	}
+
+	/**
+	 * Called by the {@link TaskExecutor} when a suspended task has released
+	 * its thread
+	 * 
+	 * @param executor
+	 *            The executor that will continue the task
+	 * @return true if the task will be continued later calling
+	 *         {@link TaskExecutor#resumeTask(BaseTask)}, false to continue it
+	 *         as soon as possible
+	 */
+	boolean park(TaskExecutor executor) {
+		return false;
+	}
+
+	/**
+	 * Run the onFinish() method of this task. If the method has the
+	 * {@link com.beyondar.android.util.annotation.OnUiThread} annotation it
+	 * will be posted to the UI thread
+	 */
+	void dispatchOnFinish() {
 		if (AnnotationsUtils.hasUiAnnotation(this,
 				OnFinishTask.__ON_FINISH_METHOD_NAME__)) {
 			runOnUiThreadOnFinish(this);
 		} else {
-			out = runTask();
+			onFinish();
 		}
-		mRunning = false;
-		return out;
+	}
 
+	/**
+	 * Finish this task with a result that has been produced somewhere else
+	 * (for instance a cached result) without executing runTask()
+	 * 
+	 * @param result
+	 *            The result to deliver
+	 */
+	void finishWithResult(TaskResult result) {
+		if (result.error()) {
+			onKillTask(result);
+		} else {
+			dispatchOnFinish();
+		}
 	}
 
 	/**
@@ -159,6 +416,9 @@ public abstract class BaseTask implements Task {
 	 *         TaskResult.TASK_MESSAGE_WAIT_OTHER_TASK_TO_FINISH
 	 */
 	public TaskResult setTaskIdToWait(long id) {
+		if (!mWaitTaskToFinish || mTaskToWait != id) {
+			mWaitStartTime = System.nanoTime();
+		}
 		mTaskToWait = id;
 		mWaitTaskToFinish = true;
 
@@ -178,6 +438,119 @@ public abstract class BaseTask implements Task {
 		return mTaskToWait;
 	}
 
+	/**
+	 * Take the result of an other task as input. This task is not executed
+	 * until all its inputs have finished, and then it gets their
+	 * {@link TaskResult}'s with {@link #getInput(long)}, even if they have
+	 * failed. Unlike {@link #setTaskIdToWait(long)}, the results don't need to
+	 * be in the history: the {@link TaskExecutor} keeps each result until all
+	 * the tasks that take it have received it. Add the inputs before adding
+	 * the task to the executor, and add the task before its inputs finish
+	 * (or keep their results in the history)
+	 * 
+	 * @param taskId
+	 *            The id of the task whose result is needed
+	 */
+	public void addInput(long taskId) {
+		long[] ids = new long[mInputIds.length + 1];
+		System.arraycopy(mInputIds, 0, ids, 0, mInputIds.length);
+		ids[mInputIds.length] = taskId;
+		mInputIds = ids;
+		mInputs = new TaskResult[ids.length];
+	}
+
+	/**
+	 * Get the result of a task added with {@link #addInput(long)}
+	 * 
+	 * @param taskId
+	 *            The id of the input task
+	 * @return The result, or null if it has not been received yet
+	 */
+	public TaskResult getInput(long taskId) {
+		for (int i = 0; i < mInputIds.length; i++) {
+			if (mInputIds[i] == taskId) {
+				return mInputs[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the object of the result of a task added with
+	 * {@link #addInput(long)}, see {@link TaskResult#objectMsg()}
+	 * 
+	 * @param taskId
+	 *            The id of the input task
+	 * @return The object, or null if there is no result
+	 * @throws ClassCastException
+	 *             If the object is not a T
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getInputObject(long taskId) {
+		TaskResult input = getInput(taskId);
+		return input == null ? null : (T) input.objectMsg();
+	}
+
+	int getInputCount() {
+		return mInputIds.length;
+	}
+
+	long getInputId(int index) {
+		return mInputIds[index];
+	}
+
+	boolean hasInput(int index) {
+		return mInputs[index] != null;
+	}
+
+	void setInput(int index, TaskResult input) {
+		mInputs[index] = input;
+	}
+
+	/**
+	 * Mark the inputs as registered in the executor
+	 * 
+	 * @return false if they were already registered
+	 */
+	boolean registerInputs() {
+		if (mInputsRegistered) {
+			return false;
+		}
+		mInputsRegistered = true;
+		return true;
+	}
+
+	void setFuture(TaskFuture future) {
+		mFuture = future;
+	}
+
+	/**
+	 * Get the future completed with the result of this task
+	 * 
+	 * @return The future, or null if the task has not been submitted with
+	 *         {@link TaskExecutorService#submitTask(BaseTask)}
+	 */
+	TaskFuture getFuture() {
+		return mFuture;
+	}
+
+	boolean hasRegisteredInputs() {
+		return mInputsRegistered;
+	}
+
+	/**
+	 * Mark the inputs as no longer registered in the executor
+	 * 
+	 * @return false if they were not registered
+	 */
+	boolean unregisterInputs() {
+		if (!mInputsRegistered) {
+			return false;
+		}
+		mInputsRegistered = false;
+		return true;
+	}
+
 	/**
 	 * Check if this task have to wait until a certain task will finish.
 	 * 
@@ -189,6 +562,357 @@ public abstract class BaseTask implements Task {
 
 	// private Vector listeners;
 
+	/**
+	 * Define how this task is executed again when runTask() returns a
+	 * {@link TaskResult} with an error or throws an exception. The
+	 * {@link TaskExecutor} waits the delay of the policy without using any
+	 * thread, and the tasks waiting for this one are released only after the
+	 * last attempt. onKillTask() is only called if the last attempt fails
+	 * 
+	 * @param retryPolicy
+	 *            The policy, or null to not retry (default)
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		mRetryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Get the policy used to retry this task
+	 * 
+	 * @return The policy, or null if the task is not retried
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+	/**
+	 * Get the number of times that runTask() has been called for the current
+	 * execution, including the retries
+	 * 
+	 * @return The attempt number, starting with 1
+	 */
+	public int getAttempt() {
+		return mAttempt;
+	}
+
+	/**
+	 * Check if this type of task can be retried
+	 */
+	boolean canRetry() {
+		return true;
+	}
+
+	/**
+	 * Set the priority of this task. Higher values are more important. The
+	 * {@link TaskExecutor} executes the tasks with higher priority first (the
+	 * tasks with the same priority in FIFO order) and removes the tasks with
+	 * lower priority first when the memory is low
+	 * 
+	 * @param priority
+	 *            The priority, {@link #PRIORITY_NORMAL} by default
+	 */
+	public void setPriority(int priority) {
+		mPriority = priority;
+	}
+
+	/**
+	 * Get the priority of this task
+	 * 
+	 * @return The priority
+	 */
+	public int getPriority() {
+		return mPriority;
+	}
+
+	/**
+	 * Get the priority used by the {@link TaskExecutor}. It is higher than
+	 * {@link #getPriority()} while a queued task with higher priority is
+	 * waiting for this one to finish (directly or through other tasks)
+	 * 
+	 * @return The priority
+	 */
+	public int getEffectivePriority() {
+		return Math.max(mPriority, mInheritedPriority);
+	}
+
+	void inheritPriority(int priority) {
+		mInheritedPriority = priority;
+	}
+
+	void clearInheritedPriority() {
+		mInheritedPriority = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Define what the {@link TaskExecutor} does with this task if it is
+	 * queued when {@link TaskExecutor#onMemoryPressure(int)} is called. Use it
+	 * for the work that can be dropped or done later, like prefetching. The
+	 * queued {@link IdleTask}'s are always dropped
+	 * 
+	 * @param shedPolicy
+	 *            {@link #SHED_NEVER} (default), {@link #SHED_DROP} or
+	 *            {@link #SHED_DEFER}
+	 */
+	public void setShedPolicy(int shedPolicy) {
+		mShedPolicy = shedPolicy;
+	}
+
+	/**
+	 * Get what happens with this task under memory pressure
+	 * 
+	 * @return The shed policy
+	 */
+	public int getShedPolicy() {
+		return mShedPolicy;
+	}
+
+	/**
+	 * Cancel this task. If the task is queued it will be removed without being
+	 * executed. If it is already running, the implementation of runTask()
+	 * should check {@link #isCancelled()} to stop as soon as possible
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	/**
+	 * Check if this task has been cancelled
+	 * 
+	 * @return true if it has been cancelled, false otherwise
+	 */
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * Get the {@link TaskGroup} assigned when the task was added to the
+	 * {@link TaskExecutor}
+	 * 
+	 * @return The group, or null if it doesn't belong to any group
+	 */
+	public TaskGroup getTaskGroup() {
+		return mTaskGroup;
+	}
+
+	void setTaskGroup(TaskGroup group) {
+		mTaskGroup = group;
+	}
+
+	void setSubmitTime(long submitTime) {
+		mSubmitTime = submitTime;
+	}
+
+	/**
+	 * Get when the task was added to the {@link TaskExecutor}
+	 * 
+	 * @return The time from System.nanoTime(), or 0 if unknown
+	 */
+	long getSubmitTime() {
+		return mSubmitTime;
+	}
+
+	/**
+	 * Get the time that the last execution of this task has spent in the
+	 * threads of the pool, without the time waiting in the queue. Only the
+	 * executions sampled by the executor are measured, see
+	 * {@link TaskExecutor#setResourceSampling(int)}
+	 * 
+	 * @return The time in nanoseconds, or -1 if it has not been measured
+	 */
+	public long getRunTime() {
+		return mLastRunTime;
+	}
+
+	/**
+	 * Get the CPU time used by the thread during the last execution of this
+	 * task, including the time spent by onFinish() when it doesn't run in the
+	 * UI thread. Only the executions sampled by the executor are measured,
+	 * see {@link TaskExecutor#setResourceSampling(int)}
+	 * 
+	 * @return The time in nanoseconds, or -1 if it has not been measured
+	 */
+	public long getCpuTime() {
+		return mLastCpuTime;
+	}
+
+	/**
+	 * Get the memory allocated by the thread during the last execution of
+	 * this task. Only the executions sampled by the executor are measured, and
+	 * only where the runtime can measure it (not in Android)
+	 * 
+	 * @return The number of bytes, or -1 if it has not been measured
+	 */
+	public long getAllocatedBytes() {
+		return mLastAllocatedBytes;
+	}
+
+	/**
+	 * Decide if the current execution is measured. Once decided it doesn't
+	 * change until the execution finishes, even if the task is continued in an
+	 * other thread
+	 */
+	void sampleResources(boolean measure) {
+		if (mResourceSampling == RESOURCES_UNDECIDED) {
+			mResourceSampling = measure ? RESOURCES_MEASURED : RESOURCES_SKIPPED;
+		}
+	}
+
+	/**
+	 * Check if the resources used by the current execution are measured
+	 */
+	boolean isResourceSampled() {
+		return mResourceSampling == RESOURCES_MEASURED;
+	}
+
+	/**
+	 * Add the resources used by a run of the task
+	 * 
+	 * @param runTime
+	 *            Time in nanoseconds
+	 * @param cpuTime
+	 *            CPU time in nanoseconds, or -1 if it is not measured
+	 * @param allocatedBytes
+	 *            Allocated bytes, or -1 if they are not measured
+	 */
+	void addResourceUsage(long runTime, long cpuTime, long allocatedBytes) {
+		mRunTime += runTime;
+		mCpuTime = cpuTime < 0 || mCpuTime < 0 ? -1 : mCpuTime + cpuTime;
+		mAllocatedBytes = allocatedBytes < 0 || mAllocatedBytes < 0 ? -1 : mAllocatedBytes
+				+ allocatedBytes;
+	}
+
+	/**
+	 * Finish the measure of the current execution, the next execution will be
+	 * sampled again
+	 */
+	void finishResourceSample() {
+		if (mResourceSampling == RESOURCES_MEASURED) {
+			mLastRunTime = mRunTime;
+			mLastCpuTime = mCpuTime;
+			mLastAllocatedBytes = mAllocatedBytes;
+		}
+		mResourceSampling = RESOURCES_UNDECIDED;
+		mRunTime = 0;
+		mCpuTime = 0;
+		mAllocatedBytes = 0;
+	}
+
+	/**
+	 * Get when the last execution of this task started
+	 * 
+	 * @return The time from System.nanoTime(), or 0 if it has never started
+	 */
+	long getStartTime() {
+		return mStartTime;
+	}
+
+	/**
+	 * Get when the task started waiting for the current task to wait
+	 * 
+	 * @return The time from System.nanoTime()
+	 */
+	long getWaitStartTime() {
+		return mWaitStartTime;
+	}
+
+	TaskResult createCancelledResult() {
+		if (hasLostHedge()) {
+			// Only the result of the copy that has won goes to the history
+			return new TaskResult(mId, false, TaskResult.TASK_MESSAGE_REMOVED,
+					"BaseTask removed! Reasons: an other copy has finished first",
+					null, false);
+		}
+		if (!isOwnerAlive()) {
+			return new TaskResult(mId, false, TaskResult.TASK_MESSAGE_REMOVED,
+					"BaseTask removed! Reasons: the owner of the task has been destroyed",
+					null);
+		}
+		return new TaskResult(mId, false, TaskResult.TASK_MESSAGE_REMOVED,
+				"BaseTask removed! Reasons: the task has been cancelled", null);
+	}
+
+	TaskResult createRemovedResult() {
+		return new TaskResult(mId, false, TaskResult.TASK_MESSAGE_REMOVED,
+				"BaseTask removed! Reasons: the queue has been cleared", null);
+	}
+
+	/**
+	 * Check if the owner of the task (see {@link TaskScope} and
+	 * {@link LifecycleTask}) is still alive. The tasks of a destroyed owner
+	 * are removed without calling onFinish() nor onKillTask()
+	 * 
+	 * @return true if the task has no owner or its owner is alive
+	 */
+	boolean isOwnerAlive() {
+		TaskGroup group = mTaskGroup;
+		return group == null || group.isActive();
+	}
+
+	/**
+	 * Check if this execution can deliver its result: it has no copy, or it
+	 * has finished before its copy
+	 * 
+	 * @return false if the copy has finished first
+	 */
+	private boolean claimResult() {
+		if (HEDGE_STATE.compareAndSet(this, HEDGE_NONE, HEDGE_FINISHED)
+				|| mHedgeState == HEDGE_FINISHED) {
+			// No copy, or an overlapping run has already finished
+			return true;
+		}
+		return mHedge.claim(this);
+	}
+
+	void setHedge(HedgeGroup hedge) {
+		mHedge = hedge;
+		mHedgeState = HEDGE_ATTACHED;
+	}
+
+	/**
+	 * Link the running task with its copy
+	 * 
+	 * @return false if the task has already finished
+	 */
+	boolean attachHedge(HedgeGroup hedge) {
+		if (mHedgeState != HEDGE_NONE) {
+			return false;
+		}
+		mHedge = hedge;
+		if (!HEDGE_STATE.compareAndSet(this, HEDGE_NONE, HEDGE_ATTACHED)) {
+			mHedge = null;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the group that links this task with its copy
+	 * 
+	 * @return The group, or null if there is no copy
+	 */
+	HedgeGroup getHedge() {
+		return mHedge;
+	}
+
+	/**
+	 * Check if this task is the copy of a late {@link HedgeableTask}
+	 */
+	boolean isHedgeCopy() {
+		HedgeGroup hedge = mHedge;
+		return hedge != null && hedge.hedge == this;
+	}
+
+	/**
+	 * Check if an other copy of this task has finished first, so this one
+	 * must finish without calling onFinish() nor onKillTask()
+	 * 
+	 * @return true if the task has lost
+	 */
+	boolean hasLostHedge() {
+		HedgeGroup hedge = getHedge();
+		return hedge != null && hedge.hasLost(this);
+	}
+
 	/**
 	 * Get the task ID
 	 * 
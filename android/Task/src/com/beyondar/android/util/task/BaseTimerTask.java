@@ -17,10 +17,49 @@ package com.beyondar.android.util.task;
 
 public abstract class BaseTimerTask extends BaseTask {
 
-	private long lastExecution;
+	/**
+	 * The next execution is scheduled when the previous one finishes. This is
+	 * the default mode
+	 */
+	public static final int MODE_FIXED_DELAY = 0;
+	/**
+	 * The executions are scheduled at a constant rate, no matter how long
+	 * they take
+	 */
+	public static final int MODE_FIXED_RATE = 1;
+
+	/**
+	 * When a fixed rate task is late for more than one period, the missed
+	 * executions are discarded and the task waits for its next slot
+	 */
+	public static final int CATCH_UP_SKIP = 0;
+	/**
+	 * When a fixed rate task is late for more than one period, the missed
+	 * executions are merged into one single execution. This is the default
+	 * policy
+	 */
+	public static final int CATCH_UP_COALESCE = 1;
+	/**
+	 * When a fixed rate task is late, all the missed executions are done one
+	 * after the other until the task is on time again
+	 */
+	public static final int CATCH_UP_BURST = 2;
+
+	private volatile long lastExecution;
 	private long timer;
+	private long tolerance;
 	private boolean kill;
 	private boolean runInBackGround;
+	private int mode = MODE_FIXED_DELAY;
+	private int catchUpPolicy = CATCH_UP_COALESCE;
+	private boolean allowOverlap;
+
+	/* Based on System.nanoTime() */
+	private volatile long nextExecution;
+	private long previousNextExecution;
+	private volatile boolean started;
+	private int pendingExecutions;
+	private long missedExecutions;
 
 	/**
 	 * @param id
@@ -68,12 +107,185 @@ public abstract class BaseTimerTask extends BaseTask {
 
 	public TaskResult executeTask() {
 		TaskResult out = super.executeTask();
-		if (!isWaitingUntilOtherTaskFinishes()) {
-			lastExecution = System.currentTimeMillis();
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (isWaitingUntilOtherTaskFinishes()) {
+				// It hasn't been executed, try again once the other task
+				// finishes
+				nextExecution = now;
+			} else {
+				lastExecution = System.currentTimeMillis();
+				if (mode == MODE_FIXED_DELAY) {
+					nextExecution = now + timer * 1000000L;
+				}
+			}
+			pendingExecutions--;
 		}
 		return out;
 	}
 
+	/**
+	 * Define how the executions are scheduled: {@link #MODE_FIXED_DELAY} or
+	 * {@link #MODE_FIXED_RATE}. The time is measured using
+	 * System.nanoTime(), so the changes of the clock don't affect the timers
+	 * 
+	 * @param mode
+	 *            The execution mode
+	 */
+	public void setExecutionMode(int mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Get how the executions are scheduled
+	 * 
+	 * @return {@link #MODE_FIXED_DELAY} or {@link #MODE_FIXED_RATE}
+	 */
+	public int getExecutionMode() {
+		return mode;
+	}
+
+	/**
+	 * Define what to do when a {@link #MODE_FIXED_RATE} task is late:
+	 * {@link #CATCH_UP_SKIP}, {@link #CATCH_UP_COALESCE} or
+	 * {@link #CATCH_UP_BURST}
+	 * 
+	 * @param policy
+	 *            The catch up policy
+	 */
+	public void setCatchUpPolicy(int policy) {
+		catchUpPolicy = policy;
+	}
+
+	/**
+	 * Get what to do when a {@link #MODE_FIXED_RATE} task is late
+	 * 
+	 * @return The catch up policy
+	 */
+	public int getCatchUpPolicy() {
+		return catchUpPolicy;
+	}
+
+	/**
+	 * Allow the {@link TaskExecutor} to start a new execution of this task
+	 * while the previous one is still running. By default the executions
+	 * never overlap
+	 * 
+	 * @param allow
+	 *            true to allow the executions to overlap
+	 */
+	public void setOverlapAllowed(boolean allow) {
+		allowOverlap = allow;
+	}
+
+	/**
+	 * Check if the executions of this task can overlap
+	 * 
+	 * @return true if they can overlap, false otherwise
+	 */
+	public boolean isOverlapAllowed() {
+		return allowOverlap;
+	}
+
+	/**
+	 * Get how many executions have been skipped or merged because the task
+	 * was late
+	 * 
+	 * @return Number of missed executions
+	 */
+	public synchronized long getMissedExecutions() {
+		return missedExecutions;
+	}
+
+	/**
+	 * Check if the task has to be executed now. If the task uses
+	 * {@link #CATCH_UP_SKIP} and it is late for more than one period, it will
+	 * be moved to its next slot
+	 * 
+	 * @param now
+	 *            The current time from System.nanoTime()
+	 * @return true if it is time to execute the task
+	 */
+	synchronized boolean isTime(long now) {
+		if (!started) {
+			return true;
+		}
+		if (pendingExecutions > 0 && (!allowOverlap || mode == MODE_FIXED_DELAY)) {
+			return false;
+		}
+		if (now < nextExecution) {
+			return false;
+		}
+		long period = timer * 1000000L;
+		if (mode == MODE_FIXED_RATE && catchUpPolicy == CATCH_UP_SKIP
+				&& period > 0 && now - nextExecution >= period) {
+			long missed = (now - nextExecution) / period;
+			missedExecutions += missed;
+			nextExecution += missed * period;
+			return now >= nextExecution;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the time until the next execution
+	 * 
+	 * @param now
+	 *            The current time from System.nanoTime()
+	 * @return The time in milliseconds, 0 or less if the task is late, or
+	 *         Long.MAX_VALUE if the next execution is unknown yet
+	 */
+	synchronized long getTimeToExecute(long now) {
+		if (!started) {
+			return 0;
+		}
+		if (pendingExecutions > 0 && (!allowOverlap || mode == MODE_FIXED_DELAY)) {
+			return Long.MAX_VALUE;
+		}
+		long nanos = nextExecution - now;
+		return nanos <= 0 ? nanos / 1000000L : (nanos + 999999L) / 1000000L;
+	}
+
+	/**
+	 * Notify that the task is going to be executed, so the next execution
+	 * can be scheduled
+	 * 
+	 * @param now
+	 *            The current time from System.nanoTime()
+	 */
+	synchronized void onDispatched(long now) {
+		pendingExecutions++;
+		previousNextExecution = nextExecution;
+		long period = timer * 1000000L;
+		if (!started) {
+			started = true;
+			nextExecution = now + period;
+			return;
+		}
+		if (mode != MODE_FIXED_RATE) {
+			return;
+		}
+		nextExecution += period;
+		if (nextExecution <= now && period > 0 && catchUpPolicy != CATCH_UP_BURST) {
+			// Merge all the missed executions into this one
+			long missed = (now - nextExecution) / period + 1;
+			missedExecutions += missed;
+			nextExecution += missed * period;
+		}
+	}
+
+	/**
+	 * Notify that the task couldn't be dispatched after calling
+	 * {@link #onDispatched(long)}
+	 */
+	synchronized void onDispatchFailed() {
+		pendingExecutions--;
+		nextExecution = previousNextExecution;
+		if (nextExecution == 0) {
+			started = false;
+		}
+	}
+
 	/**
 	 * Get the sleeping time before execute
 	 * 
@@ -84,7 +296,32 @@ public abstract class BaseTimerTask extends BaseTask {
 	}
 
 	/**
-	 * Get when was the last time that the task manager execute this task
+	 * Define how much time (in milliseconds) the execution of this task can
+	 * be delayed. The {@link TaskExecutor} uses this time to execute several
+	 * timers at once, reducing the number of times that the device wakes up.
+	 * When the {@link TaskExecutor} is sleeping this time is multiplied by
+	 * {@link TaskExecutor#getBackgroundToleranceFactor()}. The default value
+	 * is 0, so the task is executed on time
+	 * 
+	 * @param tolerance
+	 *            The tolerance in milliseconds
+	 */
+	public void setTolerance(long tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Get how much time the execution of this task can be delayed
+	 * 
+	 * @return The tolerance in milliseconds
+	 */
+	public long getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Get when was the last time that the task manager execute this task.
+	 * The scheduling doesn't depend on this value, it is only informative
 	 * 
 	 * @return last time in milliseconds
 	 */
@@ -110,6 +347,14 @@ public abstract class BaseTimerTask extends BaseTask {
 
 	}
 
+	/**
+	 * The timers are not retried, the next execution will happen as usual
+	 */
+	@Override
+	boolean canRetry() {
+		return false;
+	}
+
 	public abstract TaskResult runTask();
 
 }
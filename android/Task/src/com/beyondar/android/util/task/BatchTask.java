@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a batch of {@link BatchableTask}'s in a single thread of the pool. The
+ * {@link TaskExecutor} finishes each task of the batch with its own result
+ */
+class BatchTask extends BaseTask {
+
+	private final ArrayList<BaseTask> mTasks;
+	private final TaskResult[] mResults;
+
+	BatchTask(ArrayList<BaseTask> tasks) {
+		super();
+		mTasks = tasks;
+		mResults = new TaskResult[tasks.size()];
+		boolean sampled = false;
+		for (int i = 0; i < tasks.size(); i++) {
+			sampled |= tasks.get(i).isResourceSampled();
+		}
+		sampleResources(sampled);
+	}
+
+	@Override
+	public TaskResult runTask() {
+		ArrayList<BaseTask> ready = new ArrayList<BaseTask>(mTasks.size());
+		for (int i = 0; i < mTasks.size(); i++) {
+			mResults[i] = mTasks.get(i).startExecution();
+			if (mResults[i] == null) {
+				ready.add(mTasks.get(i));
+			}
+		}
+		if (ready.size() == 0) {
+			return null;
+		}
+		List<TaskResult> out;
+		RuntimeException error = null;
+		try {
+			out = ((BatchableTask) ready.get(0)).runBatch(ready);
+		} catch (RuntimeException e) {
+			out = null;
+			error = e;
+		}
+		int pos = 0;
+		for (int i = 0; i < mTasks.size(); i++) {
+			if (mResults[i] != null) {
+				continue;
+			}
+			BaseTask task = mTasks.get(i);
+			TaskResult result;
+			if (error != null) {
+				result = new TaskResult(task.getTaskId(), error);
+			} else {
+				result = out != null && pos < out.size() ? out.get(pos) : null;
+			}
+			pos++;
+			mResults[i] = task.finishExecution(result);
+		}
+		return null;
+	}
+
+	@Override
+	public void onFinish() {
+	}
+
+	/**
+	 * Get the number of tasks of the batch
+	 */
+	int size() {
+		return mTasks.size();
+	}
+
+	BaseTask getTask(int index) {
+		return mTasks.get(index);
+	}
+
+	/**
+	 * Get the output of a task of the batch, once the batch has finished
+	 */
+	TaskResult getResult(int index) {
+		return mResults[index];
+	}
+
+	@Override
+	public void cancel() {
+		// Each task finishes with its own cancelled result
+		for (int i = 0; i < mTasks.size(); i++) {
+			mTasks.get(i).cancel();
+		}
+	}
+
+}
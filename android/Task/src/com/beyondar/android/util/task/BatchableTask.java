@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.List;
+
+/**
+ * Implement this interface in a {@link BaseTask} whose work is cheaper when
+ * it is done for many tasks at once, like inserting rows in a database or
+ * appending lines to a file. The {@link TaskExecutor} takes the queued tasks
+ * with the same batch key and calls {@link #runBatch(List)} once for all of
+ * them instead of calling runTask() for each one. Each task of the batch
+ * gets its own {@link TaskResult}, history entry and onFinish() or
+ * onKillTask().<br>
+ * The size of the batches and how long a task can wait for more tasks are
+ * defined with {@link TaskExecutor#setMaxBatchSize(int)} and
+ * {@link TaskExecutor#setMaxBatchDelay(long)}.
+ */
+public interface BatchableTask {
+
+	/**
+	 * Get the key of the batch. Only the tasks with equal keys are executed
+	 * together
+	 * 
+	 * @return The key, or null to execute the task alone
+	 */
+	public Object getBatchKey();
+
+	/**
+	 * Do the work of all the tasks of the batch. It is called in one of the
+	 * tasks of the batch, in the thread of the pool
+	 * 
+	 * @param tasks
+	 *            The tasks of the batch, all of them with the same batch key
+	 * @return The result of each task, in the same order. A null list or a
+	 *         null result is handled like a null result of runTask()
+	 */
+	public List<TaskResult> runBatch(List<BaseTask> tasks);
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Information about a queued task that is waiting for an other task to
+ * finish. Use {@link TaskExecutor#getBlockedTasks()} to get them.
+ */
+public class BlockedTaskInfo {
+
+	/** The task to wait is queued */
+	public static final int DEPENDENCY_QUEUED = 0;
+	/** The task to wait is running */
+	public static final int DEPENDENCY_RUNNING = 1;
+	/** The {@link TaskExecutor} doesn't know any task with the id to wait */
+	public static final int DEPENDENCY_UNKNOWN = 2;
+
+	private final BaseTask mTask;
+	private final long mTaskIdToWait;
+	private final long mWaitingTime;
+	private final int mDependencyState;
+
+	BlockedTaskInfo(BaseTask task, long waitingTime, int dependencyState) {
+		mTask = task;
+		mTaskIdToWait = task.getTaskIdToWait();
+		mWaitingTime = waitingTime;
+		mDependencyState = dependencyState;
+	}
+
+	/**
+	 * Get the blocked task
+	 * 
+	 * @return The task
+	 */
+	public BaseTask getTask() {
+		return mTask;
+	}
+
+	/**
+	 * Get the id of the task that the blocked task is waiting for
+	 * 
+	 * @return The id to wait
+	 */
+	public long getTaskIdToWait() {
+		return mTaskIdToWait;
+	}
+
+	/**
+	 * Get how long the task has been waiting
+	 * 
+	 * @return The time in milliseconds
+	 */
+	public long getWaitingTime() {
+		return mWaitingTime;
+	}
+
+	/**
+	 * Get the state of the task to wait: {@link #DEPENDENCY_QUEUED},
+	 * {@link #DEPENDENCY_RUNNING} or {@link #DEPENDENCY_UNKNOWN}
+	 * 
+	 * @return The state
+	 */
+	public int getDependencyState() {
+		return mDependencyState;
+	}
+
+	@Override
+	public String toString() {
+		String state;
+		switch (mDependencyState) {
+		case DEPENDENCY_QUEUED:
+			state = "queued";
+			break;
+		case DEPENDENCY_RUNNING:
+			state = "running";
+			break;
+		default:
+			state = "unknown";
+			break;
+		}
+		return "Task id=" + mTask.getTaskId() + " waiting " + mWaitingTime
+				+ "ms for task id=" + mTaskIdToWait + " (" + state + ")";
+	}
+
+}
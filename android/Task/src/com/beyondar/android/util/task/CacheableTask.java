@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Implement this interface in a {@link BaseTask} whose result only depends on
+ * its input. When the {@link TaskExecutor} has a {@link TaskResultCache}, the
+ * task will be resolved from the cache instead of being executed again.
+ */
+public interface CacheableTask {
+
+	/**
+	 * Get the key that identifies the input of this task. Two tasks with
+	 * equal keys must produce the same result.
+	 * 
+	 * @return The cache key, or null to skip the cache for this task
+	 */
+	public Object getCacheKey();
+
+	/**
+	 * Get the weight of the result inside the cache. The cache will evict the
+	 * least recently used results when the sum of the weights exceeds its
+	 * limit. Return 1 to simply count the entries.
+	 * 
+	 * @param result
+	 *            The result that is going to be cached
+	 * @return The weight of the result
+	 */
+	public int getCacheWeight(TaskResult result);
+
+}
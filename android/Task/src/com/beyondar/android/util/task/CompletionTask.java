@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Task for asynchronous operations (network, files, sensors...) that notify
+ * their end with a callback. The task starts the operation in
+ * {@link #startOperation()} and releases its thread. When the callback calls
+ * {@link #complete(Object)} or {@link #fail(Exception)} from any thread, the
+ * task continues in the pool with {@link #onComplete(Object)}, and its result
+ * goes to the history, the dependencies and onFinish() as with any other
+ * task.<br>
+ * For instance, with a CompletionHandler:
+ *
+ * <pre>
+ * protected void startOperation() {
+ * 	mChannel.read(mBuffer, 0, null, new CompletionHandler&lt;Integer, Object&gt;() {
+ * 		public void completed(Integer read, Object attachment) {
+ * 			complete(read);
+ * 		}
+ *
+ * 		public void failed(Throwable e, Object attachment) {
+ * 			fail(new IOException(e));
+ * 		}
+ * 	});
+ * }
+ * </pre>
+ */
+public abstract class CompletionTask extends BaseTask {
+
+	private static final int STATE_IDLE = 0;
+	/* startOperation() has been called, the task still has its thread */
+	private static final int STATE_STARTED = 1;
+	/* The task has released its thread and waits for the callback */
+	private static final int STATE_PARKED = 2;
+	private static final int STATE_COMPLETED = 3;
+
+	private final Object mLock = new Object();
+	private int mState = STATE_IDLE;
+	private Object mValue;
+	private Exception mError;
+	private TaskExecutor mExecutor;
+
+	/**
+	 * Create a new {@link CompletionTask} with an specific ID
+	 *
+	 * @param id
+	 */
+	public CompletionTask(long id) {
+		super(id);
+	}
+
+	/**
+	 * Create a new {@link CompletionTask} with a default id. The hashCode of
+	 * the object will be taken as a default id.
+	 */
+	public CompletionTask() {
+		super();
+	}
+
+	/**
+	 * Start the asynchronous operation. Don't wait for it, call
+	 * {@link #complete(Object)} or {@link #fail(Exception)} when it finishes
+	 */
+	protected abstract void startOperation();
+
+	/**
+	 * Process the value of the operation. It is executed in a thread of the
+	 * pool after {@link #complete(Object)}
+	 *
+	 * @param value
+	 *            The value passed to {@link #complete(Object)}
+	 * @return The result of the task
+	 */
+	protected TaskResult onComplete(Object value) {
+		return null;
+	}
+
+	/**
+	 * Notify that the operation has finished. The task will continue in the
+	 * pool
+	 *
+	 * @param value
+	 *            The value of the operation, passed to
+	 *            {@link #onComplete(Object)}
+	 */
+	public final void complete(Object value) {
+		finishOperation(value, null);
+	}
+
+	/**
+	 * Notify that the operation has failed. The task will finish with an
+	 * error, or it will be retried according to its {@link RetryPolicy}
+	 *
+	 * @param e
+	 *            The cause of the failure
+	 */
+	public final void fail(Exception e) {
+		finishOperation(null, e);
+	}
+
+	/**
+	 * Check if the task is waiting for its operation without using a thread
+	 *
+	 * @return true if the operation is in progress
+	 */
+	public boolean isWaitingForCompletion() {
+		synchronized (mLock) {
+			return mState == STATE_PARKED;
+		}
+	}
+
+	@Override
+	public final TaskResult runTask() {
+		boolean completed;
+		Object value = null;
+		Exception error = null;
+		synchronized (mLock) {
+			completed = mState == STATE_COMPLETED;
+			if (completed) {
+				mState = STATE_IDLE;
+				value = mValue;
+				error = mError;
+				mValue = null;
+				mError = null;
+			} else {
+				mState = STATE_STARTED;
+			}
+		}
+		if (completed) {
+			if (error != null) {
+				return new TaskResult(getTaskId(), error);
+			}
+			return onComplete(value);
+		}
+		try {
+			startOperation();
+		} catch (RuntimeException e) {
+			synchronized (mLock) {
+				mState = STATE_IDLE;
+			}
+			throw e;
+		}
+		suspend();
+		return null;
+	}
+
+	/**
+	 * Cancel this task. If it is waiting for its operation, it will be
+	 * killed without waiting for the callback
+	 */
+	@Override
+	public void cancel() {
+		super.cancel();
+		TaskExecutor executor = null;
+		synchronized (mLock) {
+			if (mState == STATE_PARKED) {
+				mState = STATE_COMPLETED;
+				executor = mExecutor;
+				mExecutor = null;
+			}
+		}
+		if (executor != null) {
+			executor.resumeTask(this);
+		}
+	}
+
+	@Override
+	boolean park(TaskExecutor executor) {
+		synchronized (mLock) {
+			if (mState == STATE_COMPLETED || isCancelled()) {
+				return false;
+			}
+			mState = STATE_PARKED;
+			mExecutor = executor;
+			return true;
+		}
+	}
+
+	private void finishOperation(Object value, Exception error) {
+		TaskExecutor executor = null;
+		synchronized (mLock) {
+			if (mState != STATE_STARTED && mState != STATE_PARKED) {
+				// Completed twice or cancelled
+				return;
+			}
+			mValue = value;
+			mError = error;
+			if (mState == STATE_PARKED) {
+				executor = mExecutor;
+				mExecutor = null;
+			}
+			mState = STATE_COMPLETED;
+		}
+		if (executor != null) {
+			executor.resumeTask(this);
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Links a {@link HedgeableTask} with its copy, so only the first one that
+ * finishes delivers its result
+ */
+final class HedgeGroup {
+
+	final BaseTask primary;
+	final BaseTask hedge;
+	final HedgePolicy policy;
+	private final AtomicReference<BaseTask> mWinner = new AtomicReference<BaseTask>();
+	private final AtomicBoolean mStopped = new AtomicBoolean();
+
+	HedgeGroup(BaseTask primary, BaseTask hedge, HedgePolicy policy) {
+		this.primary = primary;
+		this.hedge = hedge;
+		this.policy = policy;
+	}
+
+	/**
+	 * Try to deliver the result of the task. The other task is cancelled if
+	 * this one wins
+	 * 
+	 * @return true if the task is the first one that finishes
+	 */
+	boolean claim(BaseTask task) {
+		if (!mWinner.compareAndSet(null, task)) {
+			return false;
+		}
+		(task == primary ? hedge : primary).cancel();
+		return true;
+	}
+
+	/**
+	 * Check if the task has lost the race
+	 */
+	boolean hasLost(BaseTask task) {
+		BaseTask winner = mWinner.get();
+		return winner != null && winner != task;
+	}
+
+	/**
+	 * Mark the copy as stopped
+	 * 
+	 * @return true the first time it is called
+	 */
+	boolean stop() {
+		return mStopped.compareAndSet(false, true);
+	}
+
+	/**
+	 * Get the task that has won
+	 * 
+	 * @return The winner, or null if no one has finished yet
+	 */
+	BaseTask getWinner() {
+		return mWinner.get();
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.HashMap;
+
+/**
+ * Defines when the {@link TaskExecutor} launches a copy of a running
+ * {@link HedgeableTask}. The executor measures the duration of the tasks of
+ * each class, and when a task has been running longer than a percentile of
+ * the durations of its class, a copy is executed in an other thread.<br>
+ * The number of copies is limited, both the copies running at the same time
+ * and the ratio of copies per task, so a slow device doesn't get even more
+ * load.
+ */
+public class HedgePolicy {
+
+	/** Default percentile of the duration that launches a copy */
+	public static final double DEFAULT_PERCENTILE = 95;
+	/** Default maximum number of copies running at the same time */
+	public static final int DEFAULT_MAX_HEDGES = 2;
+	/** Default maximum ratio of copies per executed task */
+	public static final float DEFAULT_MAX_HEDGE_RATIO = 0.05f;
+	/** Default number of durations needed before launching copies */
+	public static final int DEFAULT_MIN_SAMPLES = 20;
+
+	private final double mPercentile;
+	private final int mMaxHedges;
+	private float mMaxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+	private int mMinSamples = DEFAULT_MIN_SAMPLES;
+
+	private final HashMap<Class<?>, LatencyHistogram> mDurations = new HashMap<Class<?>, LatencyHistogram>();
+	private long mStarted;
+	private long mHedges;
+	private long mHedgeWins;
+	private int mRunningHedges;
+
+	/**
+	 * Create a policy with {@link #DEFAULT_PERCENTILE} and
+	 * {@link #DEFAULT_MAX_HEDGES}
+	 */
+	public HedgePolicy() {
+		this(DEFAULT_PERCENTILE, DEFAULT_MAX_HEDGES);
+	}
+
+	/**
+	 * Create a policy
+	 *
+	 * @param percentile
+	 *            Percentile (from 0 to 100) of the durations of the class of
+	 *            the task after which a copy is launched
+	 * @param maxHedges
+	 *            Maximum number of copies running at the same time
+	 */
+	public HedgePolicy(double percentile, int maxHedges) {
+		mPercentile = percentile;
+		mMaxHedges = maxHedges;
+	}
+
+	/**
+	 * Limit the number of copies to a ratio of the executed tasks
+	 *
+	 * @param ratio
+	 *            For instance 0.05 to launch at most one copy every 20 tasks.
+	 *            {@link #DEFAULT_MAX_HEDGE_RATIO} by default
+	 */
+	public synchronized void setMaxHedgeRatio(float ratio) {
+		mMaxHedgeRatio = ratio;
+	}
+
+	/**
+	 * Define how many durations of a class are needed before launching
+	 * copies of its tasks
+	 *
+	 * @param minSamples
+	 *            Number of durations, {@link #DEFAULT_MIN_SAMPLES} by default
+	 */
+	public synchronized void setMinSamples(int minSamples) {
+		mMinSamples = minSamples;
+	}
+
+	/**
+	 * Get how many copies have been launched
+	 *
+	 * @return Number of copies
+	 */
+	public synchronized long getHedgeCount() {
+		return mHedges;
+	}
+
+	/**
+	 * Get how many copies have finished before the original task
+	 *
+	 * @return Number of copies that have won
+	 */
+	public synchronized long getHedgeWinCount() {
+		return mHedgeWins;
+	}
+
+	/**
+	 * Get the duration of the tasks of a class at the percentile of this
+	 * policy
+	 *
+	 * @param taskClass
+	 *            The class of the task
+	 * @return The duration in microseconds, or -1 if there are not enough
+	 *         durations
+	 */
+	public synchronized long getHedgeDelay(Class<?> taskClass) {
+		LatencyHistogram durations = mDurations.get(taskClass);
+		if (durations == null || durations.getCount() < mMinSamples) {
+			return -1;
+		}
+		return durations.getPercentile(mPercentile);
+	}
+
+	synchronized void onTaskStarted() {
+		mStarted++;
+	}
+
+	synchronized void recordDuration(Class<?> taskClass, long nanos) {
+		LatencyHistogram durations = mDurations.get(taskClass);
+		if (durations == null) {
+			durations = new LatencyHistogram();
+			mDurations.put(taskClass, durations);
+		}
+		durations.record(nanos / 1000);
+	}
+
+	/**
+	 * Check the limits and count a new copy
+	 *
+	 * @return true if the copy can be launched
+	 */
+	synchronized boolean tryStartHedge() {
+		if (mRunningHedges >= mMaxHedges || mHedges + 1 > mMaxHedgeRatio * mStarted) {
+			return false;
+		}
+		mRunningHedges++;
+		mHedges++;
+		return true;
+	}
+
+	synchronized void onHedgeFinished(boolean won) {
+		mRunningHedges--;
+		if (won) {
+			mHedgeWins++;
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Implement this interface in an idempotent {@link BaseTask} whose duration
+ * varies a lot. When the {@link TaskExecutor} has a {@link HedgePolicy} and
+ * the task takes longer than usual, a copy of the task is executed in an
+ * other thread. The first one that finishes wins and the other one is
+ * cancelled, so only one of them calls onFinish().
+ */
+public interface HedgeableTask {
+
+	/**
+	 * Create a copy of this task that does the same work. The copy must have
+	 * the same id, so the tasks that depend on this one find its result in
+	 * the history
+	 * 
+	 * @return The new task
+	 */
+	public BaseTask newHedge();
+
+}
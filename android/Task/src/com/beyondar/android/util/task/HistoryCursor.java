@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Iterator over the entries of a {@link TaskHistoryStore} that match a
+ * {@link HistoryQuery}, from the newest to the oldest. The cursor works on a
+ * snapshot: the entries added after its creation are not visited, and it
+ * never locks the store nor allocates while iterating.
+ *
+ * <pre>
+ * HistoryCursor cursor = store.query(new HistoryQuery().errors(true));
+ * while (cursor.next()) {
+ * 	Log.d(TAG, cursor.getTaskId() + &quot; failed with &quot; + cursor.getMsg());
+ * }
+ * </pre>
+ */
+public class HistoryCursor {
+
+	private static final int NOT_STARTED = Integer.MIN_VALUE;
+
+	private final HistorySegment[] mSegments;
+	private final long mCount;
+	private final Class<?>[] mClasses;
+
+	private final boolean mHasId;
+	private final long mId;
+	private final boolean mHasMsg;
+	private final int mMsg;
+	private final int mError;
+	private final long mFrom;
+	private final long mTo;
+	/* -1 for any class */
+	private final int mClassId;
+
+	private int mSegmentIndex;
+	private int mPos = NOT_STARTED;
+	private HistorySegment mSegment;
+
+	HistoryCursor(HistorySegment[] segments, long count, Class<?>[] classes,
+			HistoryQuery query) {
+		mSegments = segments;
+		mCount = count;
+		mClasses = classes;
+		mHasId = query.mHasId;
+		mId = query.mId;
+		mHasMsg = query.mHasMsg;
+		mMsg = query.mMsg;
+		mError = query.mError;
+		mFrom = query.mFrom;
+		mTo = query.mTo;
+		int classId = -1;
+		if (query.mTaskClass != null) {
+			for (int i = 0; i < classes.length; i++) {
+				if (classes[i] == query.mTaskClass) {
+					classId = i;
+					break;
+				}
+			}
+		}
+		mClassId = classId;
+		// If the class is not in the store nothing matches
+		mSegmentIndex = query.mTaskClass != null && classId == -1 ? -1
+				: segments.length - 1;
+	}
+
+	/**
+	 * Move to the next matching entry
+	 *
+	 * @return false if there are no more entries
+	 */
+	public boolean next() {
+		while (mSegmentIndex >= 0) {
+			HistorySegment segment = mSegments[mSegmentIndex];
+			if (mPos == NOT_STARTED) {
+				mPos = first(segment);
+			} else {
+				mPos = following(segment, mPos);
+			}
+			while (mPos >= 0) {
+				if (segment.times[mPos] < mFrom) {
+					// The rest of the entries are older
+					mSegmentIndex = -1;
+					return false;
+				}
+				if (matches(segment, mPos)) {
+					mSegment = segment;
+					return true;
+				}
+				mPos = following(segment, mPos);
+			}
+			mSegmentIndex--;
+			mPos = NOT_STARTED;
+		}
+		mSegment = null;
+		return false;
+	}
+
+	private int first(HistorySegment segment) {
+		int limit = (int) Math.min(HistorySegment.SIZE, mCount - segment.base);
+		if (limit <= 0) {
+			return -1;
+		}
+		int start = limit - 1;
+		if (mTo != Long.MAX_VALUE) {
+			start = segment.lastIndexAtOrBefore(mTo, limit);
+		}
+		if (mHasId && segment.isIndexed()) {
+			int pos = segment.lastIndexOf(mId);
+			while (pos > start) {
+				pos = segment.previousIndexOf(pos);
+			}
+			return pos;
+		}
+		return start;
+	}
+
+	private int following(HistorySegment segment, int pos) {
+		if (mHasId && segment.isIndexed()) {
+			return segment.previousIndexOf(pos);
+		}
+		return pos - 1;
+	}
+
+	private boolean matches(HistorySegment segment, int pos) {
+		if (mHasId && segment.ids[pos] != mId) {
+			return false;
+		}
+		if (mHasMsg && segment.msgs[pos] != mMsg) {
+			return false;
+		}
+		if (mError != 0) {
+			boolean error = (segment.flags[pos] & HistorySegment.FLAG_ERROR) != 0;
+			if (error != (mError == 1)) {
+				return false;
+			}
+		}
+		return mClassId == -1 || segment.classIds[pos] == mClassId;
+	}
+
+	/**
+	 * Get the id of the task
+	 *
+	 * @return The task id
+	 */
+	public long getTaskId() {
+		return mSegment.ids[mPos];
+	}
+
+	/**
+	 * Get the message code of the result, see {@link TaskResult#msg()}
+	 *
+	 * @return The message code
+	 */
+	public int getMsg() {
+		return mSegment.msgs[mPos];
+	}
+
+	/**
+	 * Check if the task finished with an error
+	 *
+	 * @return true if the result had an error
+	 */
+	public boolean isError() {
+		return (mSegment.flags[mPos] & HistorySegment.FLAG_ERROR) != 0;
+	}
+
+	/**
+	 * Get when the task finished
+	 *
+	 * @return The time in milliseconds (System.currentTimeMillis())
+	 */
+	public long getTime() {
+		return mSegment.times[mPos];
+	}
+
+	/**
+	 * Get the time that the task waited in the queue before being executed
+	 *
+	 * @return The time in microseconds, or -1 if it is unknown
+	 */
+	public int getLatency() {
+		return mSegment.latencies[mPos];
+	}
+
+	/**
+	 * Get how long the last execution of the task took
+	 *
+	 * @return The time in microseconds, or -1 if the task was not executed
+	 */
+	public int getDuration() {
+		return mSegment.durations[mPos];
+	}
+
+	/**
+	 * Get the class of the task. For the tasks that are not a
+	 * {@link BaseTask} this is the class of the {@link Task}
+	 *
+	 * @return The class
+	 */
+	public Class<?> getTaskClass() {
+		return mClasses[mSegment.classIds[mPos]];
+	}
+
+}
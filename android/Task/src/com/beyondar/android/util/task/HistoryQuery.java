@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Filter for the entries of a {@link TaskHistoryStore}. All the conditions
+ * have to match. For instance, the errors of the last 5 minutes:
+ *
+ * <pre>
+ * new HistoryQuery().since(System.currentTimeMillis() - 5 * 60 * 1000).errors(true)
+ * </pre>
+ */
+public class HistoryQuery {
+
+	boolean mHasId;
+	long mId;
+	boolean mHasMsg;
+	int mMsg;
+	/* 0 any, 1 only errors, 2 only successes */
+	int mError;
+	long mFrom = Long.MIN_VALUE;
+	long mTo = Long.MAX_VALUE;
+	Class<?> mTaskClass;
+
+	/**
+	 * Create a query that matches all the entries
+	 */
+	public HistoryQuery() {
+	}
+
+	/**
+	 * Only the entries of the task with this id
+	 *
+	 * @param id
+	 *            The task id
+	 * @return This query
+	 */
+	public HistoryQuery id(long id) {
+		mHasId = true;
+		mId = id;
+		return this;
+	}
+
+	/**
+	 * Only the entries with this message code, see {@link TaskResult#msg()}
+	 *
+	 * @param msg
+	 *            The message code
+	 * @return This query
+	 */
+	public HistoryQuery msg(int msg) {
+		mHasMsg = true;
+		mMsg = msg;
+		return this;
+	}
+
+	/**
+	 * Only the entries with errors, or only the entries without them
+	 *
+	 * @param error
+	 *            true to get the errors, false to get the successes
+	 * @return This query
+	 */
+	public HistoryQuery errors(boolean error) {
+		mError = error ? 1 : 2;
+		return this;
+	}
+
+	/**
+	 * Only the entries that finished at or after this time
+	 *
+	 * @param from
+	 *            Time in milliseconds (System.currentTimeMillis())
+	 * @return This query
+	 */
+	public HistoryQuery since(long from) {
+		mFrom = from;
+		return this;
+	}
+
+	/**
+	 * Only the entries that finished in this time range
+	 *
+	 * @param from
+	 *            Time in milliseconds, inclusive
+	 * @param to
+	 *            Time in milliseconds, inclusive
+	 * @return This query
+	 */
+	public HistoryQuery between(long from, long to) {
+		mFrom = from;
+		mTo = to;
+		return this;
+	}
+
+	/**
+	 * Only the entries of the tasks of this class
+	 *
+	 * @param taskClass
+	 *            The class of the task
+	 * @return This query
+	 */
+	public HistoryQuery taskClass(Class<?> taskClass) {
+		mTaskClass = taskClass;
+		return this;
+	}
+
+}
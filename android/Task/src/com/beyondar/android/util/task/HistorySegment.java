@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Block of entries of the {@link TaskHistoryStore}, stored in parallel
+ * arrays. Only the writer of the store modifies a segment, and an entry is
+ * never modified once it has been published, so the readers don't need to
+ * lock it. When the segment is full an index by task id is built.
+ */
+final class HistorySegment {
+
+	static final int SIZE = 256;
+
+	static final byte FLAG_ERROR = 1;
+
+	private static final int INDEX_SIZE = SIZE * 2;
+	private static final int INDEX_MASK = INDEX_SIZE - 1;
+
+	/* Position of the first entry in the store */
+	final long base;
+
+	final long[] ids = new long[SIZE];
+	final int[] msgs = new int[SIZE];
+	final byte[] flags = new byte[SIZE];
+	/* Finish time in milliseconds, never decreasing */
+	final long[] times = new long[SIZE];
+	/* In microseconds, -1 if unknown */
+	final int[] latencies = new int[SIZE];
+	final int[] durations = new int[SIZE];
+	final int[] classIds = new int[SIZE];
+
+	/* Only used by the writer */
+	int size;
+
+	/* Open addressing table: id -> last position with that id */
+	private long[] mIndexKeys;
+	private int[] mIndexHeads;
+	/* Previous position with the same id, -1 if there is none */
+	private int[] mPrevious;
+	private volatile boolean mIndexed;
+
+	HistorySegment(long base) {
+		this.base = base;
+	}
+
+	/**
+	 * Build the index by id. Call it once, after writing the last entry
+	 */
+	void buildIndex() {
+		long[] keys = new long[INDEX_SIZE];
+		int[] heads = new int[INDEX_SIZE];
+		int[] previous = new int[SIZE];
+		for (int i = 0; i < INDEX_SIZE; i++) {
+			heads[i] = -1;
+		}
+		for (int i = 0; i < SIZE; i++) {
+			int slot = slot(keys, heads, ids[i]);
+			previous[i] = heads[slot];
+			keys[slot] = ids[i];
+			heads[slot] = i;
+		}
+		mIndexKeys = keys;
+		mIndexHeads = heads;
+		mPrevious = previous;
+		// Publish the index
+		mIndexed = true;
+	}
+
+	boolean isIndexed() {
+		return mIndexed;
+	}
+
+	/**
+	 * Get the last position of the id. Only valid if {@link #isIndexed()}
+	 *
+	 * @return The position, or -1 if the id is not in this segment
+	 */
+	int lastIndexOf(long id) {
+		return mIndexHeads[slot(mIndexKeys, mIndexHeads, id)];
+	}
+
+	/**
+	 * Get the position before pos with the same id. Only valid if
+	 * {@link #isIndexed()}
+	 *
+	 * @return The position, or -1 if there is none
+	 */
+	int previousIndexOf(int pos) {
+		return mPrevious[pos];
+	}
+
+	private static int slot(long[] keys, int[] heads, long id) {
+		int slot = (int) (id ^ (id >>> 32)) * 0x9E3779B9 >>> 23 & INDEX_MASK;
+		while (heads[slot] != -1 && keys[slot] != id) {
+			slot = (slot + 1) & INDEX_MASK;
+		}
+		return slot;
+	}
+
+	/**
+	 * Find the last position whose time is lower or equal than the time
+	 *
+	 * @param limit
+	 *            Number of valid entries
+	 * @return The position, or -1 if all the entries are newer
+	 */
+	int lastIndexAtOrBefore(long time, int limit) {
+		int low = 0;
+		int high = limit - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+}
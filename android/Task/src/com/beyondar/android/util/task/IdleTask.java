@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Task for speculative work, like prefetching or warming a cache, that
+ * should never delay the real work. The {@link TaskExecutor} keeps these
+ * tasks in their own queue and only executes them when there are no other
+ * tasks queued and there are more free threads than
+ * {@link TaskExecutor#setIdleThreshold(int)}.<br>
+ * Like in a {@link SlicedTask}, the job is split in steps with
+ * {@link #runSlice()}. When other tasks arrive the current slice ends after
+ * its step and the task goes back to the idle queue, so it is paused until
+ * the executor is idle again.
+ */
+public abstract class IdleTask extends SlicedTask {
+
+	private volatile TaskExecutor mExecutor;
+
+	/**
+	 * Create a new {@link IdleTask} with an specific ID
+	 *
+	 * @param id
+	 */
+	public IdleTask(long id) {
+		super(id);
+	}
+
+	/**
+	 * Create a new {@link IdleTask} with a default id. The hashCode of the
+	 * object will be taken as a default id.
+	 */
+	public IdleTask() {
+		super();
+	}
+
+	void setExecutor(TaskExecutor executor) {
+		mExecutor = executor;
+	}
+
+	@Override
+	boolean shouldYield() {
+		TaskExecutor executor = mExecutor;
+		return executor != null && executor.hasPendingWork();
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Histogram of latencies with a constant memory footprint. The values are
+ * grouped in buckets with a precision of 1/8 of their magnitude.
+ */
+class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BUCKETS_BITS = 3;
+
+	private final long[] mCounts = new long[64 * SUB_BUCKETS];
+	private long mCount;
+	private long mMax;
+
+	/**
+	 * Register one value
+	 * 
+	 * @param value
+	 *            The value, negative values are ignored
+	 */
+	synchronized void record(long value) {
+		if (value < 0) {
+			return;
+		}
+		mCounts[index(value)]++;
+		mCount++;
+		if (value > mMax) {
+			mMax = value;
+		}
+	}
+
+	/**
+	 * Get the value below which a percentage of the values fall
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return The value, or 0 if there are no values
+	 */
+	synchronized long getPercentile(double percentile) {
+		if (mCount == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(mCount * percentile / 100d);
+		if (target < 1) {
+			target = 1;
+		}
+		long accumulated = 0;
+		for (int i = 0; i < mCounts.length; i++) {
+			accumulated += mCounts[i];
+			if (accumulated >= target) {
+				return Math.min(lowerBound(i + 1) - 1, mMax);
+			}
+		}
+		return mMax;
+	}
+
+	synchronized long getCount() {
+		return mCount;
+	}
+
+	synchronized long getMax() {
+		return mMax;
+	}
+
+	synchronized void reset() {
+		for (int i = 0; i < mCounts.length; i++) {
+			mCounts[i] = 0;
+		}
+		mCount = 0;
+		mMax = 0;
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKETS_BITS;
+		int top = (int) (value >> shift);
+		return (shift + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+	}
+
+	private static long lowerBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long top = index % SUB_BUCKETS + SUB_BUCKETS;
+		if (shift >= 60) {
+			return Long.MAX_VALUE;
+		}
+		return top << shift;
+	}
+
+}
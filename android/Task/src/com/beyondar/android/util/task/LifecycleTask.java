@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Task that delivers its result to an owner, usually an Activity, without
+ * keeping it alive: the owner is weakly referenced, so the task can stay
+ * queued or in the history while the owner is destroyed. Declare the task as
+ * a static class (an inner class references its outer instance) and use the
+ * owner given to {@link #onFinish(Object)} and
+ * {@link #onKillTask(Object, TaskResult)}.<br>
+ * If the owner is collected, or the {@link TaskScope} of the task is
+ * destroyed, the task is removed before being executed and the callbacks are
+ * not called. Add the {@link com.beyondar.android.util.annotation.OnUiThread}
+ * annotation to {@link #onFinish(Object)} to run it in the UI thread.
+ * 
+ * @param <O>
+ *            Type of the owner
+ */
+public abstract class LifecycleTask<O> extends BaseTask {
+
+	private final WeakReference<O> mOwner;
+
+	/**
+	 * Create a new {@link LifecycleTask} with an specific ID
+	 * 
+	 * @param id
+	 * @param owner
+	 *            The owner of the task, it is weakly referenced
+	 */
+	public LifecycleTask(long id, O owner) {
+		super(id);
+		mOwner = new WeakReference<O>(owner);
+	}
+
+	/**
+	 * Create a new {@link LifecycleTask} with a default id. The hashCode of
+	 * the object will be taken as a default id.
+	 * 
+	 * @param owner
+	 *            The owner of the task, it is weakly referenced
+	 */
+	public LifecycleTask(O owner) {
+		super();
+		mOwner = new WeakReference<O>(owner);
+	}
+
+	/**
+	 * Get the owner of the task. Don't keep it in a field, use it and let it
+	 * go
+	 * 
+	 * @return The owner, or null if it has been destroyed or collected
+	 */
+	protected O getOwner() {
+		O owner = mOwner.get();
+		if (owner == null || !super.isOwnerAlive()) {
+			return null;
+		}
+		return owner;
+	}
+
+	@Override
+	boolean isOwnerAlive() {
+		return mOwner.get() != null && super.isOwnerAlive();
+	}
+
+	@Override
+	public final void onFinish() {
+		O owner = getOwner();
+		if (owner != null) {
+			onFinish(owner);
+		}
+	}
+
+	@Override
+	public final void onKillTask(TaskResult outputCode) {
+		O owner = getOwner();
+		if (owner != null) {
+			onKillTask(owner, outputCode);
+		}
+	}
+
+	/**
+	 * Override this method to deliver the result to the owner. It is only
+	 * called if the owner is alive
+	 * 
+	 * @param owner
+	 *            The owner of the task
+	 */
+	public void onFinish(O owner) {
+	}
+
+	/**
+	 * Override this method to notify the owner that the task has been killed.
+	 * It is only called if the owner is alive
+	 * 
+	 * @param owner
+	 *            The owner of the task
+	 * @param outputCode
+	 *            The error code. See {@link TaskResult} variables
+	 */
+	public void onKillTask(O owner, TaskResult outputCode) {
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Listener of a {@link TaskFuture}
+ */
+public interface OnTaskCompleteListener {
+
+	/**
+	 * Called once the task has finished, in the thread where it has
+	 * finished (usually a thread of the pool)
+	 * 
+	 * @param future
+	 *            The completed future
+	 */
+	public void onTaskComplete(TaskFuture future);
+
+}
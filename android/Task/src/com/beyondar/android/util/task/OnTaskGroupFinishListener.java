@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+public interface OnTaskGroupFinishListener {
+
+	/**
+	 * Use this method to know when all the tasks of a {@link TaskGroup} have
+	 * finished (or have been cancelled). It is called from the thread that
+	 * finished the last task
+	 * 
+	 * @param group
+	 *            The group without pending tasks
+	 */
+	public void onTaskGroupFinish(TaskGroup group);
+
+}
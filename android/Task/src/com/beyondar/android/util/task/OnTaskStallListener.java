@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+public interface OnTaskStallListener {
+
+	/**
+	 * Use this method to know when a task has been running for longer than
+	 * its threshold. It is called from the watchdog thread, once per
+	 * execution of the task
+	 * 
+	 * @param task
+	 *            The stalled task
+	 * @param thread
+	 *            The {@link ThreadFromPool} that is executing the task
+	 * @param runningTime
+	 *            How long the task has been running in milliseconds
+	 * @param stackTrace
+	 *            The stack of the thread when the stall was detected
+	 */
+	public void onTaskStall(BaseTask task, ThreadFromPool thread,
+			long runningTime, StackTraceElement[] stackTrace);
+
+}
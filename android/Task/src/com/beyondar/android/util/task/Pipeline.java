@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of {@link PipelineStage}'s executed by a {@link TaskExecutor}. Each
+ * stage has its own workers and a bounded buffer for the input items, so the
+ * items flow between the stages without creating new tasks.<br>
+ * When the buffer of a stage is full the stage before it waits, and the
+ * pressure goes back until {@link #offer(Object)} refuses new items. Stages
+ * handling real time data can use {@link #OVERFLOW_DROP_OLDEST} to always
+ * accept the new items by discarding the oldest ones.<br>
+ * <br>
+ * IMPORTANT!!! Each worker holds a thread from the pool while the pipeline is
+ * running, make sure that the pool allows enough threads.
+ * 
+ * @param <I>
+ *            The type of the items that enter the pipeline
+ * @param <O>
+ *            The type of the items produced by the last stage
+ */
+public class Pipeline<I, O> {
+
+	/** Wait until there is space available in the buffer of the stage */
+	public static final int OVERFLOW_BLOCK = 0;
+	/** Discard the oldest item in the buffer of the stage */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+
+	/** Default capacity of the buffer of each stage */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	private final TaskExecutor mTaskExecutor;
+	private final ArrayList<Stage> mStages;
+	private final Object mLock = new Object();
+	private boolean mRunning;
+
+	private Pipeline(TaskExecutor taskExecutor) {
+		mTaskExecutor = taskExecutor;
+		mStages = new ArrayList<Stage>();
+	}
+
+	/**
+	 * Create a new empty pipeline
+	 * 
+	 * @param taskExecutor
+	 *            The {@link TaskExecutor} that will run the workers
+	 * @return The new pipeline
+	 */
+	public static <T> Pipeline<T, T> newInstance(TaskExecutor taskExecutor) {
+		return new Pipeline<T, T>(taskExecutor);
+	}
+
+	/**
+	 * Add a stage with one worker, a buffer of {@link #DEFAULT_CAPACITY}
+	 * items and the policy {@link #OVERFLOW_BLOCK}
+	 * 
+	 * @param stage
+	 *            The stage to add at the end of the pipeline
+	 * @return This pipeline
+	 */
+	public <N> Pipeline<I, N> addStage(PipelineStage<? super O, N> stage) {
+		return addStage(stage, 1, DEFAULT_CAPACITY, OVERFLOW_BLOCK);
+	}
+
+	/**
+	 * Add a stage at the end of the pipeline. The stages can't be added once
+	 * the pipeline has been started
+	 * 
+	 * @param stage
+	 *            The stage to add at the end of the pipeline
+	 * @param parallelism
+	 *            Number of workers processing the items of this stage
+	 * @param capacity
+	 *            Maximum number of items waiting to be processed by this
+	 *            stage
+	 * @param overflowPolicy
+	 *            What to do when the buffer is full:
+	 *            {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_DROP_OLDEST}
+	 * @return This pipeline
+	 */
+	@SuppressWarnings("unchecked")
+	public <N> Pipeline<I, N> addStage(PipelineStage<? super O, N> stage,
+			int parallelism, int capacity, int overflowPolicy) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1");
+		}
+		synchronized (mLock) {
+			if (mRunning) {
+				throw new IllegalStateException("The pipeline is already running");
+			}
+			mStages.add(new Stage((PipelineStage<Object, Object>) stage,
+					parallelism, capacity, overflowPolicy));
+		}
+		return (Pipeline<I, N>) this;
+	}
+
+	/**
+	 * Create the workers of all the stages
+	 */
+	public void start() {
+		synchronized (mLock) {
+			if (mRunning) {
+				return;
+			}
+			mRunning = true;
+			for (int i = 0; i < mStages.size(); i++) {
+				mStages.get(i).open();
+			}
+			for (int i = 0; i < mStages.size(); i++) {
+				Stage stage = mStages.get(i);
+				Stage next = i + 1 < mStages.size() ? mStages.get(i + 1) : null;
+				for (int j = 0; j < stage.parallelism; j++) {
+					mTaskExecutor.addTask(new StageWorker(stage, next));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the pipeline. The items that are waiting in the buffers are
+	 * discarded and the workers release their threads once the item that
+	 * they are processing is done
+	 */
+	public void stop() {
+		synchronized (mLock) {
+			if (!mRunning) {
+				return;
+			}
+			mRunning = false;
+			for (int i = 0; i < mStages.size(); i++) {
+				mStages.get(i).close();
+			}
+		}
+	}
+
+	/**
+	 * Check if the pipeline is running
+	 * 
+	 * @return true if it is running, false otherwise
+	 */
+	public boolean isRunning() {
+		synchronized (mLock) {
+			return mRunning;
+		}
+	}
+
+	/**
+	 * Add an item to the pipeline without waiting. If the first stage uses
+	 * the policy {@link #OVERFLOW_DROP_OLDEST} the item is always accepted
+	 * 
+	 * @param item
+	 *            The item to process
+	 * @return true if the item has been accepted, false if the first stage is
+	 *         full or the pipeline is not running
+	 */
+	public boolean offer(I item) {
+		Stage first = getFirstStage();
+		return first != null && first.offer(item);
+	}
+
+	/**
+	 * Add an item to the pipeline waiting until the first stage has space
+	 * available
+	 * 
+	 * @param item
+	 *            The item to process
+	 * @return true if the item has been accepted, false if the pipeline is
+	 *         not running
+	 * @throws InterruptedException
+	 *             If the thread is interrupted while waiting
+	 */
+	public boolean submit(I item) throws InterruptedException {
+		Stage first = getFirstStage();
+		return first != null && first.put(item);
+	}
+
+	/**
+	 * Get the number of stages
+	 * 
+	 * @return Number of stages
+	 */
+	public int getStageCount() {
+		return mStages.size();
+	}
+
+	/**
+	 * Get the number of items processed by a stage
+	 * 
+	 * @param stage
+	 *            The stage index
+	 * @return Number of processed items
+	 */
+	public long getProcessedCount(int stage) {
+		return mStages.get(stage).processed.get();
+	}
+
+	/**
+	 * Get the number of items discarded by a stage because its buffer was
+	 * full
+	 * 
+	 * @param stage
+	 *            The stage index
+	 * @return Number of discarded items
+	 */
+	public long getDroppedCount(int stage) {
+		return mStages.get(stage).dropped.get();
+	}
+
+	/**
+	 * Get the number of items that failed with an exception in a stage
+	 * 
+	 * @param stage
+	 *            The stage index
+	 * @return Number of failed items
+	 */
+	public long getErrorCount(int stage) {
+		return mStages.get(stage).errors.get();
+	}
+
+	/**
+	 * Get the number of items waiting in the buffer of a stage
+	 * 
+	 * @param stage
+	 *            The stage index
+	 * @return Number of queued items
+	 */
+	public int getQueuedCount(int stage) {
+		RingBuffer<Object> input = mStages.get(stage).input;
+		return input == null ? 0 : input.size();
+	}
+
+	private Stage getFirstStage() {
+		synchronized (mLock) {
+			if (!mRunning || mStages.size() == 0) {
+				return null;
+			}
+			return mStages.get(0);
+		}
+	}
+
+	private static class Stage {
+
+		final PipelineStage<Object, Object> stage;
+		final int parallelism;
+		final int capacity;
+		final int overflowPolicy;
+		final AtomicLong processed = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		volatile RingBuffer<Object> input;
+
+		Stage(PipelineStage<Object, Object> stage, int parallelism,
+				int capacity, int overflowPolicy) {
+			this.stage = stage;
+			this.parallelism = parallelism;
+			this.capacity = capacity;
+			this.overflowPolicy = overflowPolicy;
+		}
+
+		void open() {
+			input = new RingBuffer<Object>(capacity);
+		}
+
+		void close() {
+			input.close();
+		}
+
+		boolean offer(Object item) {
+			if (overflowPolicy == OVERFLOW_DROP_OLDEST) {
+				return put(item);
+			}
+			return input.offer(item);
+		}
+
+		boolean put(Object item) {
+			if (overflowPolicy == OVERFLOW_DROP_OLDEST) {
+				if (input.putDropOldest(item) != null) {
+					dropped.incrementAndGet();
+				}
+				return true;
+			}
+			try {
+				return input.put(item);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Task that keeps processing the items of a stage until the pipeline is
+	 * stopped
+	 */
+	private static class StageWorker extends BaseTask {
+
+		private final Stage mStage;
+		private final Stage mNext;
+		private final RingBuffer<Object> mInput;
+
+		StageWorker(Stage stage, Stage next) {
+			mStage = stage;
+			mNext = next;
+			mInput = stage.input;
+		}
+
+		@Override
+		public TaskResult runTask() {
+			try {
+				Object item;
+				while ((item = mInput.take()) != null) {
+					Object out;
+					try {
+						out = mStage.stage.process(item);
+					} catch (RuntimeException e) {
+						mStage.errors.incrementAndGet();
+						continue;
+					}
+					mStage.processed.incrementAndGet();
+					if (out != null && mNext != null && !mNext.put(out)) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new TaskResult(getTaskId(), false,
+					TaskResult.TASK_MESSAGE_OK, null, null, false);
+		}
+
+		@Override
+		public void onFinish() {
+		}
+	}
+
+}
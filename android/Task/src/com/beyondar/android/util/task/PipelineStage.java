@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * A stage of a {@link Pipeline}. Each item received by the stage is processed
+ * and the output is sent to the next stage.
+ * 
+ * @param <I>
+ *            The type of the items received by this stage
+ * @param <O>
+ *            The type of the items sent to the next stage
+ */
+public interface PipelineStage<I, O> {
+
+	/**
+	 * Process one item. This method can be called from several threads at
+	 * the same time if the parallelism of the stage is greater than 1
+	 * 
+	 * @param item
+	 *            The item to process
+	 * @return The item for the next stage, or null to drop it
+	 */
+	public O process(I item);
+
+}
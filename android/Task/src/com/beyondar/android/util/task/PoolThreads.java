@@ -16,6 +16,7 @@
 package com.beyondar.android.util.task;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  *         This class is used to define a pool of threads to establish the
@@ -36,12 +37,17 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 
 	private volatile int mMaxThreads;
 
+	/* Threads allowed over mMaxThreads to replace the stalled ones */
+	private volatile int mExtraThreads;
+
 	private volatile int mThreadIdGen;
 
 	private volatile int mThreadCounter;
 
 	/* The list with the free threads */
 	private ArrayList<ThreadFromPool> mFreeThreadPool;
+	/* All the alive threads, free or busy */
+	private ArrayList<ThreadFromPool> mThreads;
 
 	private volatile long mMaxThreadInactiveTime;
 
@@ -49,6 +55,13 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 
 	private OnFinishTaskListener mOnFinishTaskListener;
 
+	private volatile int mIdleStrategy = ThreadFromPool.IDLE_STRATEGY_BLOCKING;
+	private volatile long mBusySpinTime = ThreadFromPool.DEFAULT_BUSY_SPIN_TIME;
+
+	private volatile ThreadBudget.Member mBudgetMember;
+	/* Notified when the budget has threads available again */
+	private volatile Runnable mBudgetListener;
+
 	// private String tag = "PoolThreads";
 
 	/**
@@ -135,6 +148,7 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 		mMaxThreadInactiveTime = maxThreadInactiveTime;
 
 		mFreeThreadPool = new ArrayList<ThreadFromPool>(mMaxThreads);
+		mThreads = new ArrayList<ThreadFromPool>(mMaxThreads);
 		// poolTherad_busy = new Vector(mMaxThreads, 1);
 
 		// threadsInUse = 0;
@@ -150,6 +164,63 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 		}
 	}
 
+	/**
+	 * Stop now all the threads that are waiting for a task, without waiting
+	 * for their max inactive time. New threads are created when needed
+	 * 
+	 * @return Number of stopped threads
+	 */
+	public int stopIdleThreads() {
+		ArrayList<ThreadFromPool> threads;
+		synchronized (this) {
+			threads = new ArrayList<ThreadFromPool>(mFreeThreadPool);
+			mFreeThreadPool.clear();
+		}
+		for (int i = 0; i < threads.size(); i++) {
+			threads.get(i).stopTask();
+		}
+		return threads.size();
+	}
+
+	/**
+	 * Define how the threads of the pool wait for new tasks. See
+	 * {@link ThreadFromPool#IDLE_STRATEGY_BLOCKING},
+	 * {@link ThreadFromPool#IDLE_STRATEGY_SPIN_YIELD_PARK} and
+	 * {@link ThreadFromPool#IDLE_STRATEGY_BUSY_SPIN}
+	 * 
+	 * @param idleStrategy
+	 *            The strategy to use
+	 */
+	public synchronized void setIdleStrategy(int idleStrategy) {
+		mIdleStrategy = idleStrategy;
+		for (int i = 0; i < mFreeThreadPool.size(); i++) {
+			mFreeThreadPool.get(i).setIdleStrategy(idleStrategy);
+		}
+	}
+
+	/**
+	 * Get how the threads of the pool wait for new tasks
+	 * 
+	 * @return The idle strategy
+	 */
+	public int getIdleStrategy() {
+		return mIdleStrategy;
+	}
+
+	/**
+	 * Define how long the threads spin before parking when they use
+	 * {@link ThreadFromPool#IDLE_STRATEGY_BUSY_SPIN}
+	 * 
+	 * @param busySpinTime
+	 *            The time in nanoseconds
+	 */
+	public synchronized void setBusySpinTime(long busySpinTime) {
+		mBusySpinTime = busySpinTime;
+		for (int i = 0; i < mFreeThreadPool.size(); i++) {
+			mFreeThreadPool.get(i).setBusySpinTime(busySpinTime);
+		}
+	}
+
 	/**
 	 * Get the maxim number of concurrent Tasks. the default value is 6
 	 *
@@ -177,26 +248,123 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 		return mMaxThreads;
 	}
 
+	/**
+	 * Allow the pool to create some threads over the maximum, for instance to
+	 * replace threads that are stalled. The extra threads are removed after
+	 * being inactive like any other thread
+	 * 
+	 * @param extraThreads
+	 *            Number of threads allowed over the maximum
+	 */
+	public void setExtraThreads(int extraThreads) {
+		mExtraThreads = extraThreads;
+	}
+
+	/**
+	 * Get the number of threads allowed over the maximum
+	 * 
+	 * @return Number of extra threads
+	 */
+	public int getExtraThreads() {
+		return mExtraThreads;
+	}
+
 	/**
 	 * Get a free thread to execute the task
      *
      * @return An available thread
 	 *
 	 */
-	public synchronized ThreadFromPool getFreeThread() {
-		ThreadFromPool thread = null;
-		if (mFreeThreadPool.size() > 0) {
-			thread = mFreeThreadPool.get(0);
-			mFreeThreadPool.remove(0);
-		} else if (mThreadCounter < mMaxThreads) {
-			thread = new ThreadFromPool(mThreadIdGen, this, this,
-                    mMaxThreadInactiveTime);
-			thread.start();
-			mThreadCounter++;
-			mThreadIdGen++;
+	public ThreadFromPool getFreeThread() {
+		ThreadBudget.Member member;
+		synchronized (this) {
+			if (mFreeThreadPool.size() > 0) {
+				return mFreeThreadPool.remove(0);
+			}
+			if (mThreadCounter >= mMaxThreads + mExtraThreads) {
+				return null;
+			}
+			member = mBudgetMember;
+			if (member == null || member.budget.tryAcquire(member)) {
+				ThreadFromPool thread = new ThreadFromPool(mThreadIdGen, this, this,
+	                    mMaxThreadInactiveTime);
+				thread.setIdleStrategy(mIdleStrategy);
+				thread.setBusySpinTime(mBusySpinTime);
+				thread.start();
+				mThreads.add(thread);
+				mThreadCounter++;
+				mThreadIdGen++;
+				return thread;
+			}
+		}
+		// The budget is exhausted: stop an idle thread of an other pool, this
+		// pool will be notified when the thread is released
+		member.budget.reclaimIdleThread(member);
+		return null;
+	}
+
+	/**
+	 * Share the maximum number of threads with other pools
+	 * 
+	 * @param budget
+	 *            The shared budget, or null to stop sharing
+	 * @param minThreads
+	 *            Threads reserved for this pool
+	 * @param listener
+	 *            Executed when the budget has threads available again after
+	 *            {@link #getFreeThread()} has returned null
+	 */
+	void setThreadBudget(ThreadBudget budget, int minThreads, Runnable listener) {
+		ThreadBudget.Member previous;
+		synchronized (this) {
+			previous = mBudgetMember;
+			mBudgetListener = listener;
+			mBudgetMember = budget == null ? null : budget.register(this, minThreads,
+					mThreadCounter);
+		}
+		if (previous != null) {
+			previous.budget.unregister(previous);
+		}
+	}
+
+	/**
+	 * Called by the {@link ThreadBudget} when it has threads available again
+	 */
+	void onBudgetAvailable() {
+		Runnable listener = mBudgetListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Stop one of the threads that are waiting for a task
+	 * 
+	 * @return true if a thread has been stopped
+	 */
+	boolean stopIdleThread() {
+		ThreadFromPool thread;
+		synchronized (this) {
+			if (mFreeThreadPool.size() == 0) {
+				return false;
+			}
+			thread = mFreeThreadPool.remove(mFreeThreadPool.size() - 1);
 		}
+		thread.stopTask();
+		return true;
+	}
 
-		return thread;
+	/**
+	 * Get a thread that is sleeping waiting for a task. No thread will be
+	 * created
+	 * 
+	 * @return An idle thread, or null if there are no idle threads
+	 */
+	public synchronized ThreadFromPool getIdleThread() {
+		if (mFreeThreadPool.size() == 0) {
+			return null;
+		}
+		return mFreeThreadPool.remove(mFreeThreadPool.size() - 1);
 	}
 
 	/**
@@ -209,11 +377,15 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 	}
 
 	public void onFinishTask(TaskResult result, BaseTask task, ThreadFromPool thread) {
-		if (mKillThreads) {
+		ThreadBudget.Member member = mBudgetMember;
+		if (mKillThreads || (member != null && member.budget.shouldGiveAway(member))) {
 			thread.stopTask();
 		} else {
 			thread.setMaxThreadInactiveTime(mMaxThreadInactiveTime);
-			mFreeThreadPool.add(thread);
+			thread.setIdleStrategy(mIdleStrategy);
+			synchronized (this) {
+				mFreeThreadPool.add(thread);
+			}
 			// LogCat.i(tag, "Adding thread from task id=" + task.getTaskId());
 		}
 		if (mOnFinishTaskListener != null && task != null) {
@@ -222,7 +394,16 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 	}
 
 	public void onThreadStops(ThreadFromPool thread) {
-		removeThread(thread);
+		ThreadBudget.Member member;
+		synchronized (this) {
+			if (!removeThread(thread)) {
+				return;
+			}
+			member = mBudgetMember;
+		}
+		if (member != null) {
+			member.budget.release(member);
+		}
 		// LogCat.i(tag, "-- id Thread=" + thread.getTaskId() +
 		// " has been stopped");
 	}
@@ -231,9 +412,85 @@ public class PoolThreads implements OnFinishTaskListener, OnThreadFromPoolStop {
 	 * This method notify the pool that the specified thread has stopped
 	 * 
 	 * @param thread Thread to be removed
+	 * @return true if the thread was alive
+	 */
+	private synchronized boolean removeThread(ThreadFromPool thread) {
+		mFreeThreadPool.remove(thread);
+		if (mThreads.remove(thread)) {
+			mThreadCounter--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stop all the threads of the pool. The threads that are running a task
+	 * will stop once the task is finished
+	 * 
+	 * @param interrupt
+	 *            true to interrupt the threads that are running a task
+	 */
+	public void stopAllThreads(boolean interrupt) {
+		ArrayList<ThreadFromPool> threads;
+		synchronized (this) {
+			threads = new ArrayList<ThreadFromPool>(mThreads);
+		}
+		for (int i = 0; i < threads.size(); i++) {
+			if (interrupt) {
+				threads.get(i).interrupt();
+			} else {
+				threads.get(i).stopTask();
+			}
+		}
+	}
+
+	/**
+	 * Wait until all the threads that have been stopped are dead
+	 * 
+	 * @param threads
+	 *            The threads to wait for
+	 * @throws InterruptedException
+	 *             If the current thread is interrupted while waiting
+	 */
+	static void joinThreads(List<ThreadFromPool> threads) throws InterruptedException {
+		for (int i = 0; i < threads.size(); i++) {
+			threads.get(i).join();
+		}
+	}
+
+	/**
+	 * Get a copy of the list with all the alive threads
+	 * 
+	 * @return The threads
+	 */
+	synchronized List<ThreadFromPool> getAllThreads() {
+		return new ArrayList<ThreadFromPool>(mThreads);
+	}
+
+	/**
+	 * Get how many tasks could be started now: the idle threads plus the
+	 * threads that can still be created
+	 * 
+	 * @return Number of free threads
+	 */
+	public synchronized int getFreeThreadCount() {
+		int canCreate = Math.max(mMaxThreads - mThreadCounter, 0);
+		ThreadBudget.Member member = mBudgetMember;
+		if (member != null) {
+			// Approximate, the other pools keep using the budget
+			canCreate = Math.min(canCreate, Math.max(member.budget.getAvailableThreads(),
+					member.minThreads - member.liveThreads));
+		}
+		return mFreeThreadPool.size() + canCreate;
+	}
+
+	/**
+	 * Get the number of alive threads in the pool
+	 * 
+	 * @return Number of threads
 	 */
-	private synchronized void removeThread(ThreadFromPool thread) {
-		mThreadCounter--;
+	public synchronized int getThreadCount() {
+		return mThreadCounter;
 	}
 
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Delivers the progress published with
+ * {@link BaseTask#publishProgress(long, long)} to the UI thread. Only the
+ * last value of each task is kept, and the values of all the tasks are
+ * delivered together in a single message, at most
+ * {@link #setMaxUpdatesPerSecond(int)} times per second.
+ */
+public class ProgressDispatcher {
+
+	/** Default number of deliveries per second */
+	public static final int DEFAULT_MAX_UPDATES_PER_SECOND = 10;
+
+	private static final Object sLock = new Object();
+	private static volatile ProgressDispatcher sThis;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/* Stack of tasks with new progress, linked with BaseTask.mNextProgress */
+	private final AtomicReference<BaseTask> mPending = new AtomicReference<BaseTask>();
+	private final AtomicBoolean mScheduled = new AtomicBoolean();
+	private volatile long mInterval = 1000 / DEFAULT_MAX_UPDATES_PER_SECOND;
+	/* Written in the UI thread */
+	private volatile long mLastDelivery;
+
+	private final Runnable mDeliver = new Runnable() {
+		@Override
+		public void run() {
+			deliver();
+		}
+	};
+
+	private ProgressDispatcher() {
+	}
+
+	/**
+	 * Get the unique instance of this class
+	 *
+	 * @return The dispatcher
+	 */
+	public static ProgressDispatcher getInstance() {
+		if (sThis == null) {
+			synchronized (sLock) {
+				if (sThis == null) {
+					sThis = new ProgressDispatcher();
+				}
+			}
+		}
+		return sThis;
+	}
+
+	/**
+	 * Define how many times per second the progress is delivered to the UI
+	 * thread
+	 *
+	 * @param maxUpdates
+	 *            Deliveries per second,
+	 *            {@link #DEFAULT_MAX_UPDATES_PER_SECOND} by default
+	 */
+	public void setMaxUpdatesPerSecond(int maxUpdates) {
+		mInterval = 1000 / Math.max(maxUpdates, 1);
+	}
+
+	/**
+	 * Get how many times per second the progress is delivered
+	 *
+	 * @return Deliveries per second
+	 */
+	public int getMaxUpdatesPerSecond() {
+		return (int) (1000 / Math.max(mInterval, 1));
+	}
+
+	/**
+	 * Add a task with new progress. Called once until its progress is
+	 * delivered, it doesn't block nor allocate
+	 */
+	void enqueue(BaseTask task) {
+		BaseTask head;
+		do {
+			head = mPending.get();
+			task.mNextProgress = head;
+		} while (!mPending.compareAndSet(head, task));
+		schedule();
+	}
+
+	private void schedule() {
+		if (mScheduled.compareAndSet(false, true)) {
+			long delay = mLastDelivery + mInterval - SystemClock.uptimeMillis();
+			mHandler.postDelayed(mDeliver, Math.max(delay, 0));
+		}
+	}
+
+	private void deliver() {
+		mLastDelivery = SystemClock.uptimeMillis();
+		BaseTask task = mPending.getAndSet(null);
+		// The stack has the newest first, deliver in publishing order
+		BaseTask previous = null;
+		while (task != null) {
+			BaseTask next = task.mNextProgress;
+			task.mNextProgress = previous;
+			previous = task;
+			task = next;
+		}
+		task = previous;
+		while (task != null) {
+			BaseTask next = task.mNextProgress;
+			task.mNextProgress = null;
+			task.deliverProgress();
+			task = next;
+		}
+		mScheduled.set(false);
+		if (mPending.get() != null) {
+			schedule();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Count events and get how many of them have happened during the last
+ * minute. The events are grouped in buckets of one second.
+ */
+class RateCounter {
+
+	private static final int BUCKETS = 60;
+
+	private final long[] mCounts = new long[BUCKETS];
+	private final long[] mSeconds = new long[BUCKETS];
+	private long mTotal;
+
+	/**
+	 * Register one event
+	 * 
+	 * @param now
+	 *            The current time in milliseconds
+	 */
+	void record(long now) {
+		record(now, 1);
+	}
+
+	/**
+	 * Register several events
+	 * 
+	 * @param now
+	 *            The current time in milliseconds
+	 * @param events
+	 *            The number of events
+	 */
+	synchronized void record(long now, long events) {
+		long second = now / 1000;
+		int index = (int) (second % BUCKETS);
+		if (mSeconds[index] != second) {
+			mSeconds[index] = second;
+			mCounts[index] = 0;
+		}
+		mCounts[index] += events;
+		mTotal += events;
+	}
+
+	/**
+	 * Get the number of events during the last minute
+	 * 
+	 * @param now
+	 *            The current time in milliseconds
+	 * @return Number of events
+	 */
+	synchronized long getLastMinute(long now) {
+		long second = now / 1000;
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (second - mSeconds[i] < BUCKETS) {
+				count += mCounts[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of events since the counter was created or reset
+	 * 
+	 * @return Number of events
+	 */
+	synchronized long getTotal() {
+		return mTotal;
+	}
+
+	synchronized void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts[i] = 0;
+			mSeconds[i] = 0;
+		}
+		mTotal = 0;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.lang.reflect.Method;
+
+import android.os.Debug;
+
+/**
+ * Measures the CPU time and the memory allocated by the current thread. In a
+ * JVM it uses the ThreadMXBean of java.lang.management (through reflection,
+ * the package doesn't exist in Android). In Android the CPU time is taken from
+ * {@link Debug#threadCpuTimeNanos()} and the allocations are not measured:
+ * the allocation counters of {@link Debug} are global and slow down the
+ * whole runtime.
+ */
+final class ResourceMeter {
+
+	private static final ResourceMeter sThis = new ResourceMeter();
+
+	/* null in Android */
+	private Object mBean;
+	private Method mCpuTime;
+	private Method mAllocatedBytes;
+
+	private ResourceMeter() {
+		try {
+			Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+			mBean = factory.getMethod("getThreadMXBean").invoke(null);
+		} catch (Throwable e) {
+			// Not a JVM
+			return;
+		}
+		try {
+			Class<?> beanClass = Class.forName("java.lang.management.ThreadMXBean");
+			if ((Boolean) beanClass.getMethod("isCurrentThreadCpuTimeSupported").invoke(mBean)) {
+				mCpuTime = beanClass.getMethod("getCurrentThreadCpuTime");
+			}
+			Class<?> sunBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+			if (sunBeanClass.isInstance(mBean)
+					&& (Boolean) sunBeanClass.getMethod("isThreadAllocatedMemorySupported")
+							.invoke(mBean)
+					&& (Boolean) sunBeanClass.getMethod("isThreadAllocatedMemoryEnabled")
+							.invoke(mBean)) {
+				mAllocatedBytes = sunBeanClass.getMethod("getThreadAllocatedBytes", long.class);
+			}
+		} catch (Throwable e) {
+			// Only part of the bean is available
+		}
+	}
+
+	static ResourceMeter getInstance() {
+		return sThis;
+	}
+
+	/**
+	 * Get the CPU time used by the current thread
+	 * 
+	 * @return The time in nanoseconds, or -1 if it can't be measured
+	 */
+	long getCpuTime() {
+		if (mBean == null) {
+			return Debug.threadCpuTimeNanos();
+		}
+		if (mCpuTime != null) {
+			try {
+				return (Long) mCpuTime.invoke(mBean);
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the memory allocated by the current thread since it started
+	 * 
+	 * @return The number of bytes, or -1 if it can't be measured
+	 */
+	long getAllocatedBytes() {
+		if (mAllocatedBytes != null) {
+			try {
+				return (Long) mAllocatedBytes.invoke(mBean, Thread.currentThread().getId());
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.Random;
+
+/**
+ * Define how a {@link BaseTask} is executed again when its runTask() method
+ * fails. The delay between two attempts grows exponentially and is chosen
+ * randomly between 0 and the current limit (full jitter), so the retries of
+ * many tasks don't happen at the same time.<br>
+ * By default all the errors are retried, override
+ * {@link #shouldRetry(TaskResult, Exception)} to choose which ones.
+ */
+public class RetryPolicy {
+
+	/** Default delay (in milliseconds) before the first retry */
+	public static final long DEFAULT_BASE_DELAY = 100;
+	/** Default maximum delay (in milliseconds) between two attempts */
+	public static final long DEFAULT_MAX_DELAY = 30000;
+
+	private static final Random sRandom = new Random();
+
+	private final int mMaxAttempts;
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+
+	/**
+	 * Create a policy with the default delays
+	 * 
+	 * @param maxAttempts
+	 *            The maximum number of executions, including the first one
+	 */
+	public RetryPolicy(int maxAttempts) {
+		this(maxAttempts, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Create a policy
+	 * 
+	 * @param maxAttempts
+	 *            The maximum number of executions, including the first one
+	 * @param baseDelay
+	 *            The maximum delay (in milliseconds) before the first retry.
+	 *            It is doubled on each retry
+	 * @param maxDelay
+	 *            The maximum delay (in milliseconds) between two attempts
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		mMaxAttempts = maxAttempts;
+		mBaseDelay = baseDelay;
+		mMaxDelay = maxDelay;
+	}
+
+	/**
+	 * Get the maximum number of executions, including the first one
+	 * 
+	 * @return The maximum number of attempts
+	 */
+	public int getMaxAttempts() {
+		return mMaxAttempts;
+	}
+
+	/**
+	 * Get the maximum delay before the first retry
+	 * 
+	 * @return The delay in milliseconds
+	 */
+	public long getBaseDelay() {
+		return mBaseDelay;
+	}
+
+	/**
+	 * Get the maximum delay between two attempts
+	 * 
+	 * @return The delay in milliseconds
+	 */
+	public long getMaxDelay() {
+		return mMaxDelay;
+	}
+
+	/**
+	 * Override this method to choose which errors should be retried. By
+	 * default all of them are retried
+	 * 
+	 * @param result
+	 *            The {@link TaskResult} with the error
+	 * @param exception
+	 *            The exception that caused the error, or null if the result
+	 *            doesn't contain any exception
+	 * @return true to execute the task again
+	 */
+	public boolean shouldRetry(TaskResult result, Exception exception) {
+		return true;
+	}
+
+	/**
+	 * Get the delay before the next attempt
+	 * 
+	 * @param attempt
+	 *            The number of the attempt that has just failed, starting
+	 *            with 1
+	 * @return The delay in milliseconds
+	 */
+	public long getDelay(int attempt) {
+		int shift = Math.min(Math.max(attempt - 1, 0), 30);
+		long limit = mBaseDelay << shift;
+		if (limit > mMaxDelay || limit < 0) {
+			limit = mMaxDelay;
+		}
+		return (long) (sRandom.nextDouble() * (limit + 1));
+	}
+
+	/**
+	 * Check if a task that has failed should be executed again
+	 * 
+	 * @param result
+	 *            The result with the error
+	 * @param attempt
+	 *            The number of the attempt that has failed, starting with 1
+	 * @return true to execute it again
+	 */
+	boolean canRetry(TaskResult result, int attempt) {
+		if (attempt >= mMaxAttempts) {
+			return false;
+		}
+		Exception exception = null;
+		if (result.objectMsg() instanceof Exception) {
+			exception = (Exception) result.objectMsg();
+		}
+		return shouldRetry(result, exception);
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Bounded FIFO buffer used to connect the stages of a {@link Pipeline}
+ * 
+ * @param <T>
+ *            The type of the items
+ */
+class RingBuffer<T> {
+
+	private final Object[] mItems;
+	private int mHead;
+	private int mSize;
+	private boolean mClosed;
+
+	/**
+	 * @param capacity
+	 *            The maximum number of items in the buffer
+	 */
+	RingBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be at least 1");
+		}
+		mItems = new Object[capacity];
+	}
+
+	/**
+	 * Add an item if there is space available
+	 * 
+	 * @return true if the item has been added, false if the buffer is full or
+	 *         closed
+	 */
+	synchronized boolean offer(T item) {
+		if (mClosed || mSize == mItems.length) {
+			return false;
+		}
+		enqueue(item);
+		return true;
+	}
+
+	/**
+	 * Add an item waiting until there is space available
+	 * 
+	 * @return true if the item has been added, false if the buffer has been
+	 *         closed
+	 */
+	synchronized boolean put(T item) throws InterruptedException {
+		while (!mClosed && mSize == mItems.length) {
+			wait();
+		}
+		if (mClosed) {
+			return false;
+		}
+		enqueue(item);
+		return true;
+	}
+
+	/**
+	 * Add an item, removing the oldest one if the buffer is full
+	 * 
+	 * @return The removed item, or null if no item has been removed
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized T putDropOldest(T item) {
+		if (mClosed) {
+			return item;
+		}
+		T dropped = null;
+		if (mSize == mItems.length) {
+			dropped = (T) mItems[mHead];
+			mItems[mHead] = null;
+			mHead = (mHead + 1) % mItems.length;
+			mSize--;
+		}
+		enqueue(item);
+		return dropped;
+	}
+
+	/**
+	 * Get the oldest item waiting until there is an item available
+	 * 
+	 * @return The item, or null if the buffer has been closed
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized T take() throws InterruptedException {
+		while (!mClosed && mSize == 0) {
+			wait();
+		}
+		if (mClosed) {
+			return null;
+		}
+		T item = (T) mItems[mHead];
+		mItems[mHead] = null;
+		mHead = (mHead + 1) % mItems.length;
+		mSize--;
+		notifyAll();
+		return item;
+	}
+
+	/**
+	 * Close the buffer, removing all the items and releasing all the waiting
+	 * threads
+	 */
+	synchronized void close() {
+		mClosed = true;
+		for (int i = 0; i < mItems.length; i++) {
+			mItems[i] = null;
+		}
+		mSize = 0;
+		notifyAll();
+	}
+
+	synchronized int size() {
+		return mSize;
+	}
+
+	int capacity() {
+		return mItems.length;
+	}
+
+	private void enqueue(T item) {
+		mItems[(mHead + mSize) % mItems.length] = item;
+		mSize++;
+		notifyAll();
+	}
+
+}
@@ -24,6 +24,10 @@ public class SimpleTask extends BaseTask
         mTask = task;
     }
 
+    Task getTask() {
+        return mTask;
+    }
+
     @Override
     public TaskResult runTask() {
         return mTask.runTask();
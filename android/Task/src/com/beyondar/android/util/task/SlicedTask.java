@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import com.beyondar.android.util.annotation.AnnotationsUtils;
+
+/**
+ * Task for long jobs that can be split in small steps, like importing a big
+ * file. The task runs steps until its slice time is over, then it releases
+ * the thread and goes to the end of the queue, so the other tasks don't have
+ * to wait until the job finishes.<br>
+ * Implement {@link #runSlice()} to do one step (or a few) and return
+ * {@link #CONTINUE} while there is work left. The dependencies are only
+ * checked before the first step.
+ */
+public abstract class SlicedTask extends BaseTask {
+
+	/** Default time (in milliseconds) that the task keeps its thread */
+	public static final long DEFAULT_SLICE_TIME = 20;
+
+	/** Return this from {@link #runSlice()} to be called again */
+	protected static final TaskResult CONTINUE = TaskResult.CONTINUE;
+
+	private static final String ON_PROGRESS_METHOD_NAME = "onProgress";
+
+	private volatile long mSliceTime = DEFAULT_SLICE_TIME;
+	private volatile long mDone;
+	private volatile long mTotal;
+	private int mSlices;
+	/* null until the first progress is reported */
+	private Boolean mProgressOnUiThread;
+
+	/**
+	 * Create a new {@link SlicedTask} with an specific ID
+	 *
+	 * @param id
+	 */
+	public SlicedTask(long id) {
+		super(id);
+	}
+
+	/**
+	 * Create a new {@link SlicedTask} with a default id. The hashCode of the
+	 * object will be taken as a default id.
+	 */
+	public SlicedTask() {
+		super();
+	}
+
+	/**
+	 * Do the next step of the job
+	 *
+	 * @return {@link #CONTINUE} if there is work left, otherwise the
+	 *         {@link TaskResult} of the task (it can be null)
+	 */
+	protected abstract TaskResult runSlice();
+
+	@Override
+	public final TaskResult runTask() {
+		long deadline = System.nanoTime() + mSliceTime * 1000000L;
+		TaskResult result;
+		do {
+			result = runSlice();
+		} while (result == CONTINUE && System.nanoTime() < deadline && !isCancelled()
+				&& !shouldYield());
+		mSlices++;
+		reportProgress();
+		if (result == CONTINUE) {
+			suspend();
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Check if the slice has to end before its time is over
+	 */
+	boolean shouldYield() {
+		return false;
+	}
+
+	/**
+	 * Define how long the task can keep its thread before letting other tasks
+	 * run. Short slices make the other tasks start sooner, long slices finish
+	 * the job with less overhead
+	 *
+	 * @param sliceTime
+	 *            The time in milliseconds, {@link #DEFAULT_SLICE_TIME} by
+	 *            default
+	 */
+	public void setSliceTime(long sliceTime) {
+		mSliceTime = sliceTime;
+	}
+
+	/**
+	 * Get how long the task can keep its thread
+	 *
+	 * @return The time in milliseconds
+	 */
+	public long getSliceTime() {
+		return mSliceTime;
+	}
+
+	/**
+	 * Get how many slices have been executed
+	 *
+	 * @return Number of slices
+	 */
+	public int getSliceCount() {
+		return mSlices;
+	}
+
+	/**
+	 * Update the progress of the job. It is reported with
+	 * {@link #onProgress(long, long)} at the end of the slice
+	 *
+	 * @param done
+	 *            Amount of work done
+	 * @param total
+	 *            Total amount of work, or 0 if unknown
+	 */
+	protected void setProgress(long done, long total) {
+		mDone = done;
+		mTotal = total;
+	}
+
+	/**
+	 * Get the amount of work done
+	 *
+	 * @return The last value set with {@link #setProgress(long, long)}
+	 */
+	public long getProgressDone() {
+		return mDone;
+	}
+
+	/**
+	 * Get the total amount of work
+	 *
+	 * @return The last value set with {@link #setProgress(long, long)}
+	 */
+	public long getProgressTotal() {
+		return mTotal;
+	}
+
+	/**
+	 * Override this method to be notified of the progress once per slice. Add
+	 * the {@link com.beyondar.android.util.annotation.OnUiThread} annotation
+	 * to run it in the UI thread, where it is delivered like
+	 * {@link #onProgressUpdate(long, long)}
+	 *
+	 * @param done
+	 *            Amount of work done
+	 * @param total
+	 *            Total amount of work, or 0 if unknown
+	 */
+	public void onProgress(long done, long total) {
+	}
+
+	private void reportProgress() {
+		long done = mDone;
+		long total = mTotal;
+		if (mProgressOnUiThread == null) {
+			mProgressOnUiThread = AnnotationsUtils.hasUiAnnotation(this,
+					ON_PROGRESS_METHOD_NAME);
+		}
+		if (mProgressOnUiThread) {
+			publishProgress(done, total);
+		} else {
+			onProgress(done, total);
+		}
+	}
+
+	@Override
+	public void onProgressUpdate(long done, long total) {
+		if (mProgressOnUiThread != null && mProgressOnUiThread) {
+			onProgress(done, total);
+		}
+	}
+
+}
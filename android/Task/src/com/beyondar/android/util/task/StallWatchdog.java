@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Detect the tasks that have been running for too long. The watchdog checks
+ * the threads of the pool periodically, so the threads don't do any extra
+ * work apart from saving when each task starts.<br>
+ * Optionally, the watchdog can allow the pool to create extra threads to
+ * replace the stalled ones, so the pool doesn't lose capacity.<br>
+ * Use {@link TaskExecutor#setStallWatchdog(StallWatchdog)} to start it.
+ */
+public class StallWatchdog implements Runnable {
+
+	/** Default time (in milliseconds) before considering that a task stalls */
+	public static final long DEFAULT_THRESHOLD = 10000;
+	/** Default time (in milliseconds) between two checks */
+	public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+	private final Object mLock = new Object();
+	private final HashMap<Class<?>, Long> mThresholds;
+	/* Start time of the last execution reported for each thread */
+	private final HashMap<ThreadFromPool, Long> mReported;
+	private volatile long mDefaultThreshold;
+	private volatile long mCheckInterval;
+	private volatile int mMaxCompensationThreads;
+	private volatile OnTaskStallListener mListener;
+	private volatile int mStalledThreads;
+	private long mStallCount;
+
+	private TaskExecutor mTaskExecutor;
+	private PoolThreads mPool;
+	private Thread mThread;
+	private boolean mStop;
+
+	/**
+	 * Create a watchdog with the default threshold and check interval
+	 */
+	public StallWatchdog() {
+		this(DEFAULT_THRESHOLD, DEFAULT_CHECK_INTERVAL);
+	}
+
+	/**
+	 * Create a watchdog
+	 * 
+	 * @param defaultThreshold
+	 *            Time (in milliseconds) before considering that a task
+	 *            stalls, for the classes without a specific threshold
+	 * @param checkInterval
+	 *            Time (in milliseconds) between two checks
+	 */
+	public StallWatchdog(long defaultThreshold, long checkInterval) {
+		mThresholds = new HashMap<Class<?>, Long>();
+		mReported = new HashMap<ThreadFromPool, Long>();
+		mDefaultThreshold = defaultThreshold;
+		mCheckInterval = checkInterval;
+	}
+
+	/**
+	 * Set the listener to notify when a stalled task is detected
+	 * 
+	 * @param listener
+	 *            The listener
+	 */
+	public void setOnTaskStallListener(OnTaskStallListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Define the threshold for a class of tasks. The subclasses without their
+	 * own threshold use this one too
+	 * 
+	 * @param taskClass
+	 *            The class of the tasks
+	 * @param threshold
+	 *            The time in milliseconds
+	 */
+	public void setThreshold(Class<? extends BaseTask> taskClass, long threshold) {
+		synchronized (mThresholds) {
+			mThresholds.put(taskClass, threshold);
+		}
+	}
+
+	/**
+	 * Define the threshold for the tasks whose class doesn't have a specific
+	 * threshold
+	 * 
+	 * @param threshold
+	 *            The time in milliseconds
+	 */
+	public void setDefaultThreshold(long threshold) {
+		mDefaultThreshold = threshold;
+	}
+
+	/**
+	 * Get the threshold that applies to a task
+	 * 
+	 * @param task
+	 *            The task
+	 * @return The time in milliseconds
+	 */
+	public long getThreshold(BaseTask task) {
+		synchronized (mThresholds) {
+			if (mThresholds.size() > 0) {
+				Class<?> c = task.getClass();
+				while (c != null) {
+					Long threshold = mThresholds.get(c);
+					if (threshold != null) {
+						return threshold;
+					}
+					c = c.getSuperclass();
+				}
+			}
+		}
+		return mDefaultThreshold;
+	}
+
+	/**
+	 * Define the time between two checks
+	 * 
+	 * @param checkInterval
+	 *            The time in milliseconds
+	 */
+	public void setCheckInterval(long checkInterval) {
+		mCheckInterval = checkInterval;
+	}
+
+	/**
+	 * Allow the pool to create one extra thread for each stalled task, up to
+	 * this maximum. The default value is 0, so the pool never grows over its
+	 * maximum number of threads
+	 * 
+	 * @param maxThreads
+	 *            Maximum number of extra threads
+	 */
+	public void setMaxCompensationThreads(int maxThreads) {
+		mMaxCompensationThreads = maxThreads;
+	}
+
+	/**
+	 * Get the number of tasks that were stalled in the last check
+	 * 
+	 * @return Number of stalled tasks
+	 */
+	public int getStalledCount() {
+		return mStalledThreads;
+	}
+
+	/**
+	 * Get how many stalls have been detected since the watchdog was created
+	 * 
+	 * @return Number of stalls
+	 */
+	public long getTotalStallCount() {
+		synchronized (mLock) {
+			return mStallCount;
+		}
+	}
+
+	/**
+	 * Start checking the threads of the executor
+	 */
+	void start(TaskExecutor taskExecutor, PoolThreads pool) {
+		synchronized (mLock) {
+			if (mThread != null) {
+				throw new IllegalStateException("The watchdog is already running");
+			}
+			mTaskExecutor = taskExecutor;
+			mPool = pool;
+			mStop = false;
+			mThread = new Thread(this, "StallWatchdog");
+			mThread.setDaemon(true);
+			mThread.start();
+		}
+	}
+
+	/**
+	 * Stop checking the threads
+	 */
+	void stop() {
+		synchronized (mLock) {
+			mStop = true;
+			mThread = null;
+			mLock.notifyAll();
+		}
+	}
+
+	public void run() {
+		PoolThreads pool;
+		synchronized (mLock) {
+			pool = mPool;
+		}
+		while (true) {
+			synchronized (mLock) {
+				if (mStop || mThread != Thread.currentThread()) {
+					break;
+				}
+				try {
+					mLock.wait(mCheckInterval);
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (mStop || mThread != Thread.currentThread()) {
+					break;
+				}
+			}
+			check(pool);
+		}
+		pool.setExtraThreads(0);
+	}
+
+	private void check(PoolThreads pool) {
+		List<ThreadFromPool> threads = pool.getAllThreads();
+		long now = System.nanoTime();
+		int stalled = 0;
+		HashMap<ThreadFromPool, Long> reported = new HashMap<ThreadFromPool, Long>();
+		for (int i = 0; i < threads.size(); i++) {
+			ThreadFromPool thread = threads.get(i);
+			BaseTask task = thread.getRunningTask();
+			long start = thread.getRunningTaskStart();
+			if (task == null) {
+				continue;
+			}
+			long runningTime = (now - start) / 1000000L;
+			if (runningTime < getThreshold(task)) {
+				continue;
+			}
+			stalled++;
+			Long lastReport = mReported.get(thread);
+			reported.put(thread, start);
+			if (lastReport != null && lastReport == start) {
+				continue;
+			}
+			synchronized (mLock) {
+				mStallCount++;
+			}
+			OnTaskStallListener listener = mListener;
+			if (listener != null) {
+				listener.onTaskStall(task, thread, runningTime, thread.getStackTrace());
+			}
+		}
+		mReported.clear();
+		mReported.putAll(reported);
+
+		int extra = Math.min(stalled, mMaxCompensationThreads);
+		int previousExtra = pool.getExtraThreads();
+		mStalledThreads = stalled;
+		pool.setExtraThreads(extra);
+		if (extra > previousExtra) {
+			mTaskExecutor.onPoolCapacityChanged();
+		}
+	}
+
+}
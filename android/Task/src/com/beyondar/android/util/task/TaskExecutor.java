@@ -16,7 +16,12 @@
 package com.beyondar.android.util.task;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -26,6 +31,54 @@ import java.util.List;
  */
 public class TaskExecutor {
 
+	/**
+	 * Default factor applied to the tolerance of the {@link BaseTimerTask}'s
+	 * while the executor is sleeping
+	 */
+	public static final float DEFAULT_BACKGROUND_TOLERANCE_FACTOR = 4;
+
+	/**
+	 * The memory is getting low: only the sheddable tasks with a priority
+	 * lower than {@link BaseTask#PRIORITY_NORMAL} are removed from the queue
+	 */
+	public static final int MEMORY_PRESSURE_MODERATE = 1;
+	/** The memory is very low: all the sheddable tasks are removed */
+	public static final int MEMORY_PRESSURE_CRITICAL = 2;
+
+	/** Default number of results kept in the history under memory pressure */
+	public static final int DEFAULT_HISTORY_FLOOR = 20;
+	/** Default time (in milliseconds) that a deferred task is put aside */
+	public static final long DEFAULT_SHED_DEFER_DELAY = 5000;
+	/** Default maximum number of {@link BatchableTask}'s executed together */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+	/** Default time (in milliseconds) that a batch waits for more tasks */
+	public static final long DEFAULT_MAX_BATCH_DELAY = 0;
+	/** Default number of free threads kept for the real work */
+	public static final int DEFAULT_IDLE_THRESHOLD = 0;
+	/** Use this value to stop measuring the resources used by the tasks */
+	public static final int RESOURCE_SAMPLING_DISABLED = 0;
+	/** Default sampling of the resources: one of every 16 executions */
+	public static final int DEFAULT_RESOURCE_SAMPLING = 16;
+
+	private static final Comparator<BaseTask> LOWEST_PRIORITY_FIRST = new Comparator<BaseTask>() {
+		public int compare(BaseTask lhs, BaseTask rhs) {
+			int l = lhs.getEffectivePriority();
+			int r = rhs.getEffectivePriority();
+			return l < r ? -1 : (l == r ? 0 : 1);
+		}
+	};
+
+	private static final Comparator<BaseTask> HIGHEST_PRIORITY_FIRST = new Comparator<BaseTask>() {
+		public int compare(BaseTask lhs, BaseTask rhs) {
+			// The copies of the late HedgeableTask's go ahead of everything
+			boolean l = lhs.isHedgeCopy();
+			if (l != rhs.isHedgeCopy()) {
+				return l ? -1 : 1;
+			}
+			return LOWEST_PRIORITY_FIRST.compare(rhs, lhs);
+		}
+	};
+
 	// private String tag = "TaskExecutor";
 
     private static Object mLockStatic =  new Object();
@@ -35,6 +88,9 @@ public class TaskExecutor {
 	private ArrayList<BaseTask> mQueueAsyncTasks;
 	/** FIFO Queue for synchronous tasks */
 	private ArrayList<BaseTask> mQueueSyncTasks;
+	/** Queue for the {@link IdleTask}'s, executed when there is nothing else */
+	private ArrayList<BaseTask> mQueueIdleTasks;
+	/** Filled from the threads of the pool, always accessed holding its lock */
 	private ArrayList<TaskResult> mTaskHistory;
 	private PoolThreads mPool;
 	private Object mSharedLock = new Object();
@@ -42,6 +98,42 @@ public class TaskExecutor {
 	/* set this to -1 to wait until a new task arrive */
 	private long mTimeToWait;
 	private boolean mIsBackground;
+	private volatile float mBackgroundToleranceFactor;
+	private final TaskExecutorMetrics mMetrics;
+	private volatile boolean mPurgeCancelledTasks;
+	private volatile TaskResultCache mResultCache;
+	private volatile TaskHistoryStore mHistoryStore;
+	private volatile ThreadBudget mThreadBudget;
+	private volatile HedgePolicy mHedgePolicy;
+	private volatile TaskResultPublisher mResultPublisher;
+	/* Results kept for the queued tasks that take them as input */
+	private HashMap<Long, DataflowEdge> mInputResults;
+	/* Running HedgeableTask's and when a copy should be launched */
+	private ArrayList<HedgeCandidate> mHedgeCandidates;
+	/* Cached results waiting to be delivered by the core thread */
+	private ArrayList<CachedDelivery> mCachedDeliveries;
+	/* Failed tasks waiting to be retried */
+	private ArrayList<DelayedTask> mDelayedTasks;
+	/* Suspended tasks waiting for a callback to continue */
+	private ArrayList<BaseTask> mParkedTasks;
+	/* Tasks given to a thread that haven't finished yet */
+	private final AtomicInteger mRunningTasks = new AtomicInteger();
+	private final Object mTerminationLock = new Object();
+	private volatile boolean mShutdown;
+	private volatile boolean mTerminated;
+	private boolean mCoreThreadStarted;
+	private StallWatchdog mStallWatchdog;
+	/* 0 to wait forever */
+	private volatile long mDependencyTimeout;
+	/* Time until the next dependency timeout, -1 if there is none */
+	private long mDependencyTimeToWait = -1;
+	private volatile int mHistoryFloor = DEFAULT_HISTORY_FLOOR;
+	private volatile long mShedDeferDelay = DEFAULT_SHED_DEFER_DELAY;
+	private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	private volatile long mMaxBatchDelay = DEFAULT_MAX_BATCH_DELAY;
+	private volatile int mIdleThreshold = DEFAULT_IDLE_THRESHOLD;
+	private volatile int mResourceSampling = DEFAULT_RESOURCE_SAMPLING;
+	private final AtomicInteger mResourceSamples = new AtomicInteger();
 
 	private TaskExecutor(int maxThreads, long maxThreadInactiveTime) {
         mLock = new Object();
@@ -49,12 +141,19 @@ public class TaskExecutor {
 		mTaskHistory = new ArrayList<TaskResult>();
 		mQueueSyncTasks = new ArrayList<BaseTask>();
 		mQueueAsyncTasks = new ArrayList<BaseTask>();
+		mQueueIdleTasks = new ArrayList<BaseTask>();
+		mCachedDeliveries = new ArrayList<CachedDelivery>();
+		mDelayedTasks = new ArrayList<DelayedTask>();
+		mParkedTasks = new ArrayList<BaseTask>();
+		mHedgeCandidates = new ArrayList<HedgeCandidate>();
+		mInputResults = new HashMap<Long, DataflowEdge>();
 		mCoreThread = new CoreThread();
 		mPool = new PoolThreads(maxThreads, maxThreadInactiveTime);
 		mPool.setOnFinishTaskListener(mCoreThread);
 		mIsBackground = false;
-
-		mCoreThread.start();
+		mBackgroundToleranceFactor = DEFAULT_BACKGROUND_TOLERANCE_FACTOR;
+		mMetrics = new TaskExecutorMetrics();
+		// The core thread is started with the first task
 	}
 
 	/**
@@ -115,6 +214,28 @@ public class TaskExecutor {
 		mPool.setMaxThreadInactiveTime(maxInactiveTimeThread);
 	}
 
+	/**
+	 * Define how the threads of the pool wait for new tasks. See
+	 * {@link ThreadFromPool#IDLE_STRATEGY_BLOCKING},
+	 * {@link ThreadFromPool#IDLE_STRATEGY_SPIN_YIELD_PARK} and
+	 * {@link ThreadFromPool#IDLE_STRATEGY_BUSY_SPIN}
+	 * 
+	 * @param idleStrategy
+	 *            The strategy to use
+	 */
+	public void setIdleStrategy(int idleStrategy) {
+		mPool.setIdleStrategy(idleStrategy);
+	}
+
+	/**
+	 * Get how the threads of the pool wait for new tasks
+	 * 
+	 * @return The idle strategy
+	 */
+	public int getIdleStrategy() {
+		return mPool.getIdleStrategy();
+	}
+
 	/**
 	 * Add {@link BaseTask} or {@link BaseTimerTask}. It will be processed depending of
 	 * the type
@@ -122,20 +243,733 @@ public class TaskExecutor {
 	 * @param task The new task to run
 	 */
 	public synchronized void addTask(Task task) {
+		if (mShutdown) {
+			rejectTask(task);
+			return;
+		}
+		if (task instanceof BaseTask && !(task instanceof BaseTimerTask)
+				&& ((BaseTask) task).getInputCount() != 0) {
+			registerInputs((BaseTask) task);
+		}
+		queueTask(task);
+	}
+
+	/**
+	 * Keep the results of the inputs of the task until it receives them
+	 */
+	private synchronized void registerInputs(BaseTask task) {
+		if (!task.registerInputs()) {
+			return;
+		}
+		for (int i = 0; i < task.getInputCount(); i++) {
+			DataflowEdge edge = mInputResults.get(task.getInputId(i));
+			if (edge == null) {
+				edge = new DataflowEdge();
+				mInputResults.put(task.getInputId(i), edge);
+			}
+			edge.consumers++;
+		}
+	}
+
+	/**
+	 * Stop keeping the results of the inputs of a task that won't be
+	 * executed
+	 */
+	private synchronized void unregisterInputs(BaseTask task) {
+		if (!task.unregisterInputs()) {
+			return;
+		}
+		for (int i = 0; i < task.getInputCount(); i++) {
+			if (!task.hasInput(i)) {
+				releaseInputResult(task.getInputId(i));
+			}
+		}
+	}
+
+	private void releaseInputResult(long id) {
+		DataflowEdge edge = mInputResults.get(id);
+		if (edge != null && --edge.consumers == 0) {
+			mInputResults.remove(id);
+		}
+	}
+
+	/**
+	 * Give to the task the results of its inputs that have finished
+	 * 
+	 * @return true if the task has all its inputs
+	 */
+	private synchronized boolean receiveInputs(BaseTask task) {
+		boolean ready = true;
+		for (int i = 0; i < task.getInputCount(); i++) {
+			if (task.hasInput(i)) {
+				continue;
+			}
+			long id = task.getInputId(i);
+			DataflowEdge edge = mInputResults.get(id);
+			TaskResult result = edge == null ? null : edge.result;
+			if (result == null) {
+				result = searchHistoryTask(id);
+			}
+			if (result == null) {
+				ready = false;
+				continue;
+			}
+			task.setInput(i, result);
+			if (task.hasRegisteredInputs()) {
+				releaseInputResult(id);
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * Deliver the final result of a task to the tasks that take it as input,
+	 * to its {@link TaskFuture} and to the subscribers of the
+	 * {@link TaskResultPublisher}
+	 */
+	private void onTaskResult(BaseTask task, TaskResult result) {
+		publishResult(task, result);
+		TaskFuture future = task.getFuture();
+		if (future != null) {
+			future.complete(result);
+		}
+		TaskResultPublisher publisher = mResultPublisher;
+		if (publisher != null) {
+			publisher.publish(result);
+		}
+	}
+
+	/**
+	 * Keep the result of a finished task if other tasks take it as input
+	 */
+	private synchronized void publishResult(BaseTask task, TaskResult result) {
+		DataflowEdge edge = mInputResults.get(task.getTaskId());
+		if (edge != null) {
+			edge.result = result;
+		}
+	}
+
+	/**
+	 * Add a task to the queues, even if the executor has been shut down
+	 */
+	private synchronized void queueTask(Task task) {
 		// LogCat.i(tag, "Adding task id =" + task.getTaskId());
+		startCoreThread();
+		if (isCacheable(task) && resolveFromCache((BaseTask) task)) {
+			mCoreThread.processTasks();
+			return;
+		}
 		if (task instanceof BaseTimerTask) {
 			mQueueAsyncTasks.add((BaseTimerTask) task);
-		} else if (task instanceof BaseTask){
-			mQueueSyncTasks.add((BaseTask) task);
-		}else{
-            SimpleTask newTask = new SimpleTask(task);
-            mQueueSyncTasks.add(newTask);
-        }
+		} else {
+			BaseTask baseTask;
+			if (task instanceof BaseTask) {
+				baseTask = (BaseTask) task;
+			} else {
+				baseTask = new SimpleTask(task);
+			}
+			if (baseTask.isWaitingUntilOtherTaskFinishes() && createsDependencyCycle(baseTask)) {
+				finishWithoutRunning(baseTask, new TaskResult(baseTask.getTaskId(), true,
+						TaskResult.TASK_MESSAGE_ERROR_CHECKING_DEPENDENCIES,
+						"Dependency cycle: waiting for the task id="
+								+ baseTask.getTaskIdToWait(), null));
+				return;
+			}
+			baseTask.setSubmitTime(System.nanoTime());
+			if (baseTask instanceof IdleTask) {
+				((IdleTask) baseTask).setExecutor(this);
+				mQueueIdleTasks.add(baseTask);
+			} else {
+				if (handOffToIdleThread(baseTask)) {
+					return;
+				}
+				mQueueSyncTasks.add(baseTask);
+			}
+		}
 		//if (!task.isWaitingUntilOtherTaskFinishes()) {
 		mCoreThread.processTasks();
 		//}
 	}
 
+	/**
+	 * Follow the chain of queued tasks waiting for each other, starting with
+	 * the task that the new task waits for
+	 * 
+	 * @return true if the chain comes back to the new task
+	 */
+	private boolean createsDependencyCycle(BaseTask task) {
+		HashMap<Long, Long> waits = new HashMap<Long, Long>();
+		for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+			BaseTask queued = mQueueSyncTasks.get(i);
+			if (queued != task && queued.isWaitingUntilOtherTaskFinishes()) {
+				waits.put(queued.getTaskId(), queued.getTaskIdToWait());
+			}
+		}
+		HashSet<Long> visited = new HashSet<Long>();
+		long current = task.getTaskIdToWait();
+		while (true) {
+			if (current == task.getTaskId()) {
+				return true;
+			}
+			if (!visited.add(current) || searchHistoryTask(current) != null) {
+				return false;
+			}
+			Long next = waits.get(current);
+			if (next == null) {
+				return false;
+			}
+			current = next;
+		}
+	}
+
+	/**
+	 * Finish a task that won't be executed
+	 */
+	private void finishWithoutRunning(BaseTask task, TaskResult result) {
+		task.finishResourceSample();
+		if (task.isOwnerAlive()) {
+			task.onKillTask(result);
+		}
+		if (isCacheable(task)) {
+			// The tasks waiting for its result will try by themselves
+			onCacheableTaskFinished(task, result, false);
+		}
+		unregisterInputs(task);
+		onTaskResult(task, result);
+		if (result.saveToHistory()) {
+			addToHistory(result, task, false);
+		}
+		if (task.getTaskGroup() != null) {
+			task.getTaskGroup().onTaskFinished(task);
+		}
+	}
+
+	/**
+	 * Define how long a task can wait for a task that the executor doesn't
+	 * know (it is not queued nor running). After this time the waiting task
+	 * is killed with the message
+	 * TaskResult.TASK_MESSAGE_ERROR_CHECKING_DEPENDENCIES
+	 * 
+	 * @param timeout
+	 *            The time in milliseconds, or 0 to wait forever (default)
+	 */
+	public void setDependencyTimeout(long timeout) {
+		mDependencyTimeout = timeout;
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Get how long a task can wait for a task that the executor doesn't know
+	 * 
+	 * @return The time in milliseconds, or 0 to wait forever
+	 */
+	public long getDependencyTimeout() {
+		return mDependencyTimeout;
+	}
+
+	/**
+	 * Get the queued tasks that are waiting for an other task to finish
+	 * 
+	 * @return A list with the information of each blocked task
+	 */
+	public synchronized List<BlockedTaskInfo> getBlockedTasks() {
+		ArrayList<BlockedTaskInfo> blocked = new ArrayList<BlockedTaskInfo>();
+		long now = System.nanoTime();
+		for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+			BaseTask task = mQueueSyncTasks.get(i);
+			if (!task.isWaitingUntilOtherTaskFinishes()
+					|| searchHistoryTask(task.getTaskIdToWait()) != null) {
+				continue;
+			}
+			blocked.add(new BlockedTaskInfo(task,
+					(now - task.getWaitStartTime()) / 1000000L,
+					getDependencyState(task.getTaskIdToWait())));
+		}
+		return blocked;
+	}
+
+	private int getDependencyState(long id) {
+		List<ThreadFromPool> threads = mPool.getAllThreads();
+		for (int i = 0; i < threads.size(); i++) {
+			BaseTask running = threads.get(i).getRunningTask();
+			if (running != null && running.getTaskId() == id) {
+				return BlockedTaskInfo.DEPENDENCY_RUNNING;
+			}
+		}
+		synchronized (this) {
+			for (int i = 0; i < mParkedTasks.size(); i++) {
+				if (mParkedTasks.get(i).getTaskId() == id) {
+					return BlockedTaskInfo.DEPENDENCY_RUNNING;
+				}
+			}
+			for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+				if (mQueueSyncTasks.get(i).getTaskId() == id) {
+					return BlockedTaskInfo.DEPENDENCY_QUEUED;
+				}
+			}
+			for (int i = 0; i < mQueueAsyncTasks.size(); i++) {
+				if (mQueueAsyncTasks.get(i).getTaskId() == id) {
+					return BlockedTaskInfo.DEPENDENCY_QUEUED;
+				}
+			}
+			for (int i = 0; i < mQueueIdleTasks.size(); i++) {
+				if (mQueueIdleTasks.get(i).getTaskId() == id) {
+					return BlockedTaskInfo.DEPENDENCY_QUEUED;
+				}
+			}
+		}
+		return BlockedTaskInfo.DEPENDENCY_UNKNOWN;
+	}
+
+	private void startCoreThread() {
+		if (!mCoreThreadStarted) {
+			mCoreThreadStarted = true;
+			mCoreThread.start();
+		}
+	}
+
+	private void rejectTask(Task task) {
+		if (task instanceof BaseTask) {
+			BaseTask baseTask = (BaseTask) task;
+			TaskResult result = new TaskResult(baseTask.getTaskId(), false,
+					TaskResult.TASK_MESSAGE_REMOVED,
+					"BaseTask removed! Reasons: the TaskExecutor has been shut down", null);
+			if (baseTask.isOwnerAlive()) {
+				baseTask.onKillTask(result);
+			}
+			if (baseTask.getFuture() != null) {
+				baseTask.getFuture().complete(result);
+			}
+		}
+	}
+
+	/**
+	 * Add a task that will be queued after a delay
+	 * 
+	 * @param task
+	 *            The task to add
+	 * @param delay
+	 *            The delay in milliseconds
+	 */
+	void addDelayedTask(BaseTask task, long delay) {
+		synchronized (this) {
+			if (mShutdown) {
+				rejectTask(task);
+				return;
+			}
+			if (delay > 0) {
+				startCoreThread();
+				DelayedTask delayed = new DelayedTask();
+				delayed.task = task;
+				delayed.time = System.nanoTime() + delay * 1000000L;
+				mDelayedTasks.add(delayed);
+			} else {
+				addTask(task);
+			}
+		}
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Get the publisher of the results of the tasks executed from now on,
+	 * to observe them with a {@link TaskResultSubscriber}
+	 * 
+	 * @return The publisher of this executor
+	 */
+	public TaskResultPublisher getResultPublisher() {
+		if (mResultPublisher == null) {
+			synchronized (this) {
+				if (mResultPublisher == null) {
+					mResultPublisher = new TaskResultPublisher();
+				}
+			}
+		}
+		return mResultPublisher;
+	}
+
+	/**
+	 * Stop accepting new tasks. The queued tasks will be executed, except the
+	 * {@link BaseTimerTask}'s, which are removed. Once all the tasks have
+	 * finished all the threads are stopped. Use
+	 * {@link #awaitTermination(long)} to wait until it happens. The tasks
+	 * added after calling this method are killed with the message
+	 * TaskResult.TASK_MESSAGE_REMOVED
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (mShutdown) {
+				return;
+			}
+			mShutdown = true;
+			for (int i = 0; i < mQueueAsyncTasks.size(); i++) {
+				((BaseTimerTask) mQueueAsyncTasks.get(i)).killTask();
+			}
+			if (!mCoreThreadStarted) {
+				onTerminated();
+				return;
+			}
+		}
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Stop accepting new tasks, remove all the queued tasks and interrupt the
+	 * running ones. The interrupted tasks are also cancelled (see
+	 * {@link BaseTask#isCancelled()})
+	 * 
+	 * @return The tasks that have been removed without being executed
+	 */
+	public List<BaseTask> shutdownNow() {
+		List<BaseTask> removed;
+		ArrayList<BaseTask> parked;
+		boolean started;
+		synchronized (this) {
+			mShutdown = true;
+			removed = takeAllQueuedTasks();
+			parked = new ArrayList<BaseTask>(mParkedTasks);
+			started = mCoreThreadStarted;
+		}
+		finishRemovedTasks(removed);
+		if (!started) {
+			onTerminated();
+			return removed;
+		}
+		for (int i = 0; i < parked.size(); i++) {
+			parked.get(i).cancel();
+		}
+		List<ThreadFromPool> threads = mPool.getAllThreads();
+		for (int i = 0; i < threads.size(); i++) {
+			// The tasks given to the thread that haven't started yet
+			List<BaseTask> pending = threads.get(i).drainPendingTasks();
+			for (int j = 0; j < pending.size(); j++) {
+				BaseTask task = pending.get(j);
+				if (task instanceof BatchTask) {
+					BatchTask batch = (BatchTask) task;
+					for (int k = 0; k < batch.size(); k++) {
+						removeDispatchedTask(batch.getTask(k));
+						removed.add(batch.getTask(k));
+					}
+				} else {
+					removeDispatchedTask(task);
+					removed.add(task);
+				}
+			}
+			BaseTask task = threads.get(i).getCurrentTask();
+			if (task != null) {
+				task.cancel();
+			}
+		}
+		mPool.stopAllThreads(true);
+		mCoreThread.processTasks();
+		return removed;
+	}
+
+	/**
+	 * Release a task that has been dispatched to a thread but won't run
+	 */
+	private synchronized void removeDispatchedTask(BaseTask task) {
+		mRunningTasks.decrementAndGet();
+		unregisterInputs(task);
+		for (int i = 0; i < mHedgeCandidates.size(); i++) {
+			if (mHedgeCandidates.get(i).task == task) {
+				mHedgeCandidates.remove(i);
+				break;
+			}
+		}
+		if (task.isHedgeCopy()) {
+			onHedgeStopped(task);
+		}
+		if (task.getTaskGroup() != null) {
+			task.getTaskGroup().onTaskStopped(task, true);
+		}
+	}
+
+	/**
+	 * Wait until all the tasks have finished and all the threads have been
+	 * stopped after calling {@link #shutdown()} or {@link #shutdownNow()}
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait in milliseconds
+	 * @return true if the executor has terminated, false if the timeout has
+	 *         elapsed before
+	 * @throws InterruptedException
+	 *             If the current thread is interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (mTerminationLock) {
+			while (!mTerminated) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				mTerminationLock.wait(remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if {@link #shutdown()} or {@link #shutdownNow()} has been called
+	 * 
+	 * @return true if the executor doesn't accept new tasks
+	 */
+	public boolean isShutdown() {
+		return mShutdown;
+	}
+
+	/**
+	 * Check if all the tasks have finished and all the threads have been
+	 * stopped after a shut down
+	 * 
+	 * @return true if the executor has terminated
+	 */
+	public boolean isTerminated() {
+		return mTerminated;
+	}
+
+	/**
+	 * Allow a terminated executor to accept new tasks again. The
+	 * configuration, the history and the metrics are kept, and the threads
+	 * are created again when they are needed
+	 */
+	public synchronized void restart() {
+		if (!mTerminated) {
+			throw new IllegalStateException("The TaskExecutor has not terminated");
+		}
+		mCoreThread = new CoreThread();
+		mPool.setOnFinishTaskListener(mCoreThread);
+		mCoreThreadStarted = false;
+		if (mStallWatchdog != null) {
+			mStallWatchdog.start(this, mPool);
+		}
+		synchronized (mTerminationLock) {
+			mTerminated = false;
+		}
+		mShutdown = false;
+	}
+
+	private void onTerminated() {
+		synchronized (mTerminationLock) {
+			mTerminated = true;
+			mTerminationLock.notifyAll();
+		}
+		TaskResultPublisher publisher = mResultPublisher;
+		if (publisher != null) {
+			publisher.complete();
+		}
+	}
+
+	/**
+	 * If there are no other tasks waiting and one of the threads of the pool
+	 * is idle, give the task directly to the thread without waking up the
+	 * core thread. Only the tasks that don't need the bookkeeping of the core
+	 * thread (groups, inputs, dependencies, copies) are given this way
+	 * 
+	 * @return true if the task has been given to a thread
+	 */
+	private boolean handOffToIdleThread(BaseTask task) {
+		if (mQueueSyncTasks.size() != 0 || mIsBackground || !canHandOff(task)) {
+			return false;
+		}
+		ThreadFromPool thread = mPool.getIdleThread();
+		if (thread == null) {
+			return false;
+		}
+		mRunningTasks.incrementAndGet();
+		sampleResources(task);
+		if (!thread.addTask(task)) {
+			mRunningTasks.decrementAndGet();
+			return false;
+		}
+		mMetrics.onDirectHandoff();
+		return true;
+	}
+
+	private boolean canHandOff(BaseTask task) {
+		return !task.isRunning() && task.getTaskGroup() == null && task.getInputCount() == 0
+				&& !task.isWaitingUntilOtherTaskFinishes() && !isBatchable(task)
+				&& !(task instanceof HedgeableTask) && task.isOwnerAlive();
+	}
+
+	/**
+	 * Decide if the resources used by the execution of the task are measured
+	 */
+	private void sampleResources(BaseTask task) {
+		int sampling = mResourceSampling;
+		task.sampleResources(sampling > RESOURCE_SAMPLING_DISABLED
+				&& mResourceSamples.getAndIncrement() % sampling == 0);
+	}
+
+	/**
+	 * Continue a task that is waiting for a callback, for instance when a
+	 * {@link CompletionTask} has been completed
+	 * 
+	 * @param task
+	 *            The task to continue
+	 */
+	void resumeTask(BaseTask task) {
+		synchronized (this) {
+			if (!mParkedTasks.remove(task)) {
+				return;
+			}
+		}
+		mRunningTasks.decrementAndGet();
+		continueTask(task);
+	}
+
+	/**
+	 * Queue a suspended task to continue its execution
+	 */
+	private synchronized void continueTask(BaseTask task) {
+		task.setSubmitTime(System.nanoTime());
+		if (task instanceof IdleTask) {
+			mQueueIdleTasks.add(task);
+			mCoreThread.processTasks();
+			return;
+		}
+		if (handOffToIdleThread(task)) {
+			return;
+		}
+		mQueueSyncTasks.add(task);
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Add {@link BaseTask} or {@link BaseTimerTask} as a member of a
+	 * {@link TaskGroup}. The group can limit how many of its tasks run at the
+	 * same time, and cancel all of them at once
+	 * 
+	 * @param task
+	 *            The new task to run
+	 * @param group
+	 *            The group of the task
+	 */
+	public synchronized void addTask(Task task, TaskGroup group) {
+		if (mShutdown) {
+			rejectTask(task);
+			return;
+		}
+		BaseTask baseTask;
+		if (task instanceof BaseTask) {
+			baseTask = (BaseTask) task;
+		} else {
+			baseTask = new SimpleTask(task);
+		}
+		if (group != null) {
+			baseTask.setTaskGroup(group);
+			group.addTask(baseTask, this);
+		}
+		addTask(baseTask);
+	}
+
+	/**
+	 * Notify that some queued tasks have been cancelled, so they have to be
+	 * removed from the queues
+	 */
+	void onTasksCancelled() {
+		mPurgeCancelledTasks = true;
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Set the cache used to resolve the {@link CacheableTask}'s. Use null to
+	 * disable the cache
+	 * 
+	 * @param cache
+	 *            The cache to use
+	 */
+	public void setResultCache(TaskResultCache cache) {
+		mResultCache = cache;
+	}
+
+	/**
+	 * Get the cache used to resolve the {@link CacheableTask}'s
+	 * 
+	 * @return The cache, or null if there is no cache
+	 */
+	public TaskResultCache getResultCache() {
+		return mResultCache;
+	}
+
+	/**
+	 * Check if the task is executed with other tasks of its batch key
+	 */
+	private static boolean isBatchable(BaseTask task) {
+		return task instanceof BatchableTask && !(task instanceof BaseTimerTask)
+				&& !(task instanceof HedgeableTask)
+				&& ((BatchableTask) task).getBatchKey() != null;
+	}
+
+	private boolean isCacheable(Task task) {
+		return mResultCache != null && task instanceof CacheableTask
+				&& task instanceof BaseTask && !(task instanceof BaseTimerTask);
+	}
+
+	/**
+	 * Try to resolve the task using the cache. If the result is not cached
+	 * but there is an other task with the same key being executed, the task
+	 * will wait for that result
+	 * 
+	 * @return true if the task doesn't need to be queued
+	 */
+	private boolean resolveFromCache(BaseTask task) {
+		TaskResultCache cache = mResultCache;
+		Object key = ((CacheableTask) task).getCacheKey();
+		if (key == null || task.isWaitingUntilOtherTaskFinishes()
+				|| task.getInputCount() != 0) {
+			return false;
+		}
+		TaskResult cached = cache.get(key);
+		if (cached != null) {
+			deliverCachedResult(task, cached);
+			return true;
+		}
+		return cache.joinInFlight(key, task);
+	}
+
+	private void deliverCachedResult(BaseTask task, TaskResult result) {
+		CachedDelivery delivery = new CachedDelivery();
+		delivery.task = task;
+		delivery.result = result.copyForTask(task.getTaskId());
+		synchronized (mCachedDeliveries) {
+			mCachedDeliveries.add(delivery);
+		}
+	}
+
+	/**
+	 * Store the result of a {@link CacheableTask} and release the tasks that
+	 * were waiting for it. Only the successful results of executed tasks are
+	 * stored, otherwise the waiting tasks are queued again to try by
+	 * themselves
+	 * 
+	 * @param executed
+	 *            false if the task has finished without being executed
+	 */
+	private void onCacheableTaskFinished(BaseTask task, TaskResult result, boolean executed) {
+		TaskResultCache cache = mResultCache;
+		Object key = ((CacheableTask) task).getCacheKey();
+		if (key == null) {
+			return;
+		}
+		List<BaseTask> waiting = cache.completeInFlight(key, task);
+		boolean success = executed && !result.error() && !task.isCancelled()
+				&& result.msg() != TaskResult.TASK_MESSAGE_REMOVED;
+		if (success) {
+			cache.put(key, result, ((CacheableTask) task).getCacheWeight(result));
+		}
+		if (waiting == null) {
+			return;
+		}
+		for (int i = 0; i < waiting.size(); i++) {
+			if (success) {
+				deliverCachedResult(waiting.get(i), result);
+			} else {
+				queueTask(waiting.get(i));
+			}
+		}
+	}
+
 	/**
 	 * Sleep the taskExecutor, but if there are any task that can run in
 	 * background, it will be executed. <br>
@@ -153,6 +987,326 @@ public class TaskExecutor {
 		mCoreThread.processTasks();
 	}
 
+	/**
+	 * Define how much the tolerance of the {@link BaseTimerTask}'s grows while
+	 * the executor is sleeping. A bigger factor allows to coalesce more
+	 * timers in the same wake up
+	 * 
+	 * @param factor
+	 *            The factor to apply, use 1 to keep the same tolerance
+	 */
+	public void setBackgroundToleranceFactor(float factor) {
+		mBackgroundToleranceFactor = factor;
+	}
+
+	/**
+	 * Get how much the tolerance of the {@link BaseTimerTask}'s grows while
+	 * the executor is sleeping
+	 * 
+	 * @return The factor
+	 */
+	public float getBackgroundToleranceFactor() {
+		return mBackgroundToleranceFactor;
+	}
+
+	/**
+	 * Set the watchdog that will check the tasks that run for too long. The
+	 * previous watchdog, if any, is stopped
+	 * 
+	 * @param watchdog
+	 *            The watchdog, or null to stop checking
+	 */
+	public synchronized void setStallWatchdog(StallWatchdog watchdog) {
+		if (mStallWatchdog != null) {
+			mStallWatchdog.stop();
+		}
+		mStallWatchdog = watchdog;
+		if (watchdog != null) {
+			watchdog.start(this, mPool);
+		}
+	}
+
+	/**
+	 * Get the watchdog that checks the tasks that run for too long
+	 * 
+	 * @return The watchdog, or null if there is no watchdog
+	 */
+	public synchronized StallWatchdog getStallWatchdog() {
+		return mStallWatchdog;
+	}
+
+	/**
+	 * Share the threads with other executors. The executor keeps its own
+	 * maximum number of threads, but the live threads of all the executors
+	 * that use the budget never exceed the maximum of the budget. When this
+	 * executor has tasks waiting and the budget is exhausted, the idle
+	 * threads of the other executors are stopped to let it create new ones
+	 * 
+	 * @param budget
+	 *            The shared budget, or null to stop sharing (default)
+	 * @param minThreads
+	 *            Threads reserved for this executor, the other executors
+	 *            can't take them
+	 * @throws IllegalArgumentException
+	 *             If the budget can't reserve minThreads more threads
+	 */
+	public void setThreadBudget(ThreadBudget budget, int minThreads) {
+		mPool.setThreadBudget(budget, minThreads, budget == null ? null : new Runnable() {
+			@Override
+			public void run() {
+				onPoolCapacityChanged();
+			}
+		});
+		mThreadBudget = budget;
+	}
+
+	/**
+	 * Get the budget shared with other executors
+	 * 
+	 * @return The budget, or null if the threads are not shared
+	 */
+	public ThreadBudget getThreadBudget() {
+		return mThreadBudget;
+	}
+
+	/**
+	 * Notify that the pool can run more tasks than before
+	 */
+	void onPoolCapacityChanged() {
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Get the counters of this executor
+	 * 
+	 * @return The metrics
+	 */
+	public TaskExecutorMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Release memory when the system is running low. Call it from
+	 * onTrimMemory() (for instance with {@link #MEMORY_PRESSURE_MODERATE} for
+	 * TRIM_MEMORY_RUNNING_LOW and {@link #MEMORY_PRESSURE_CRITICAL} for
+	 * TRIM_MEMORY_RUNNING_CRITICAL or higher) or, outside Android, from a
+	 * MemoryPoolMXBean usage threshold notification. The executor will:
+	 * <ul>
+	 * <li>Trim the history to the last {@link #setHistoryFloor(int)} results</li>
+	 * <li>Drop the queued {@link IdleTask}'s, whatever their shed policy</li>
+	 * <li>Drop or defer the queued tasks according to their
+	 * {@link BaseTask#setShedPolicy(int)}, the ones with lowest priority first</li>
+	 * <li>Stop the idle threads without waiting for their max inactive time</li>
+	 * </ul>
+	 * All the actions are counted in the {@link TaskExecutorMetrics}
+	 * 
+	 * @param level
+	 *            {@link #MEMORY_PRESSURE_MODERATE} or
+	 *            {@link #MEMORY_PRESSURE_CRITICAL}
+	 */
+	public void onMemoryPressure(int level) {
+		int trimmed;
+		ArrayList<BaseTask> shed = new ArrayList<BaseTask>();
+		int dropped = 0;
+		int deferred = 0;
+		synchronized (this) {
+			trimmed = trimHistory(mHistoryFloor);
+			// The idle work goes first, it only runs when there is nothing else
+			ArrayList<BaseTask> idle = new ArrayList<BaseTask>(mQueueIdleTasks);
+			mQueueIdleTasks.clear();
+			for (int i = 0; i < idle.size(); i++) {
+				dropTask(idle.get(i));
+			}
+			dropped = idle.size();
+			for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+				BaseTask task = mQueueSyncTasks.get(i);
+				if (task.getShedPolicy() != BaseTask.SHED_NEVER
+						&& (level >= MEMORY_PRESSURE_CRITICAL
+						|| task.getEffectivePriority() < BaseTask.PRIORITY_NORMAL)) {
+					shed.add(task);
+				}
+			}
+			// Stable sort, so the tasks with the same priority keep the FIFO order
+			Collections.sort(shed, LOWEST_PRIORITY_FIRST);
+			long deferTime = System.nanoTime() + mShedDeferDelay * 1000000L;
+			for (int i = 0; i < shed.size(); i++) {
+				BaseTask task = shed.get(i);
+				mQueueSyncTasks.remove(task);
+				if (task.getShedPolicy() == BaseTask.SHED_DEFER) {
+					deferred += deferTask(task, deferTime);
+				} else {
+					dropTask(task);
+				}
+			}
+		}
+		int stopped = mPool.stopIdleThreads();
+		mMetrics.onMemoryPressure(trimmed, dropped + shed.size() - deferred, deferred, stopped);
+		if (deferred > 0) {
+			mCoreThread.processTasks();
+		}
+	}
+
+	/**
+	 * Remove the oldest results from the history
+	 * 
+	 * @return Number of removed results
+	 */
+	private int trimHistory(int floor) {
+		synchronized (mTaskHistory) {
+			int toRemove = mTaskHistory.size() - Math.max(floor, 0);
+			if (toRemove <= 0) {
+				return 0;
+			}
+			mTaskHistory.subList(0, toRemove).clear();
+			return toRemove;
+		}
+	}
+
+	/**
+	 * Put aside a task removed from the queue. If it was running a
+	 * {@link CacheableTask}, the tasks waiting for its result are put aside
+	 * as well
+	 * 
+	 * @return Number of deferred tasks
+	 */
+	private int deferTask(BaseTask task, long time) {
+		int deferred = 1;
+		DelayedTask delayed = new DelayedTask();
+		delayed.task = task;
+		delayed.time = time;
+		mDelayedTasks.add(delayed);
+		if (isCacheable(task) && ((CacheableTask) task).getCacheKey() != null) {
+			List<BaseTask> waiting = mResultCache.completeInFlight(((CacheableTask) task)
+					.getCacheKey(), task);
+			if (waiting != null) {
+				for (int i = 0; i < waiting.size(); i++) {
+					delayed = new DelayedTask();
+					delayed.task = waiting.get(i);
+					delayed.time = time;
+					mDelayedTasks.add(delayed);
+				}
+				deferred += waiting.size();
+			}
+		}
+		return deferred;
+	}
+
+	private void dropTask(BaseTask task) {
+		TaskResult result = new TaskResult(task.getTaskId(), true,
+				TaskResult.TASK_MESSAGE_SHED, "Removed because the memory is low", null,
+				false);
+		finishWithoutRunning(task, result);
+	}
+
+	/**
+	 * Define how many results are kept in the history when
+	 * {@link #onMemoryPressure(int)} is called
+	 * 
+	 * @param floor
+	 *            Number of results, {@link #DEFAULT_HISTORY_FLOOR} by default
+	 */
+	public void setHistoryFloor(int floor) {
+		mHistoryFloor = floor;
+	}
+
+	/**
+	 * Get how many results are kept in the history under memory pressure
+	 * 
+	 * @return Number of results
+	 */
+	public int getHistoryFloor() {
+		return mHistoryFloor;
+	}
+
+	/**
+	 * Define how long the tasks with {@link BaseTask#SHED_DEFER} are put
+	 * aside when {@link #onMemoryPressure(int)} is called
+	 * 
+	 * @param delay
+	 *            The time in milliseconds, {@link #DEFAULT_SHED_DEFER_DELAY}
+	 *            by default
+	 */
+	public void setShedDeferDelay(long delay) {
+		mShedDeferDelay = delay;
+	}
+
+	/**
+	 * Get how long the deferred tasks are put aside
+	 * 
+	 * @return The time in milliseconds
+	 */
+	public long getShedDeferDelay() {
+		return mShedDeferDelay;
+	}
+
+	/**
+	 * Define how many {@link BatchableTask}'s with the same key can be
+	 * executed together
+	 * 
+	 * @param maxBatchSize
+	 *            Number of tasks, {@link #DEFAULT_MAX_BATCH_SIZE} by default
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		mMaxBatchSize = Math.max(maxBatchSize, 1);
+	}
+
+	/**
+	 * Get how many {@link BatchableTask}'s can be executed together
+	 * 
+	 * @return Number of tasks
+	 */
+	public int getMaxBatchSize() {
+		return mMaxBatchSize;
+	}
+
+	/**
+	 * Define how long the oldest {@link BatchableTask} of a batch that is not
+	 * full can wait for more tasks with the same key. With 0 the batch takes
+	 * the tasks that are already queued
+	 * 
+	 * @param maxBatchDelay
+	 *            The time in milliseconds, {@link #DEFAULT_MAX_BATCH_DELAY}
+	 *            by default
+	 */
+	public void setMaxBatchDelay(long maxBatchDelay) {
+		mMaxBatchDelay = maxBatchDelay;
+	}
+
+	/**
+	 * Get how long a batch can wait for more tasks
+	 * 
+	 * @return The time in milliseconds
+	 */
+	public long getMaxBatchDelay() {
+		return mMaxBatchDelay;
+	}
+
+	/**
+	 * Define how many executions are measured: the run time, the CPU time and
+	 * the memory allocated by the thread. The measures are aggregated by
+	 * class of task in {@link TaskExecutorMetrics#getResourceUsage(Class)}.
+	 * Measuring costs a few microseconds per execution, sample the executions
+	 * instead of measuring all of them when the tasks are tiny
+	 * 
+	 * @param sampling
+	 *            Measure one of every sampling executions, 1 to measure all
+	 *            of them or {@link #RESOURCE_SAMPLING_DISABLED}.
+	 *            {@link #DEFAULT_RESOURCE_SAMPLING} by default
+	 */
+	public void setResourceSampling(int sampling) {
+		mResourceSampling = Math.max(sampling, RESOURCE_SAMPLING_DISABLED);
+	}
+
+	/**
+	 * Get how many executions are measured
+	 * 
+	 * @return One of every returned executions is measured, or
+	 *         {@link #RESOURCE_SAMPLING_DISABLED}
+	 */
+	public int getResourceSampling() {
+		return mResourceSampling;
+	}
+
 	/**
 	 * Make all the threads in the pool(including existing threads) temporal ,
 	 * but first, all the treads will finish the assigned tasks. If all the
@@ -194,35 +1348,236 @@ public class TaskExecutor {
 	}
 
 	/**
-	 * Remove all BaseTask form the task manager. The task that are already running
-	 * will be removed when they will finish the task
+	 * Remove all BaseTask form the task manager. The task that are already running
+	 * will be removed when they will finish the task. The removed tasks are
+	 * killed with the message TaskResult.TASK_MESSAGE_REMOVED, so their
+	 * futures complete
+	 */
+	public void removeAllQueuedTask() {
+		finishRemovedTasks(takeAllQueuedTasks());
+	}
+
+	/**
+	 * Take all the tasks that are waiting to be executed out of the
+	 * {@link TaskExecutor}
+	 * 
+	 * @return The removed tasks
+	 */
+	private synchronized List<BaseTask> takeAllQueuedTasks() {
+		List<BaseTask> removed = takeInFlightTasks();
+		removed.addAll(takeQueuedTasks(mQueueAsyncTasks));
+		removed.addAll(takeQueuedTasks(mQueueSyncTasks));
+		removed.addAll(takeQueuedTasks(mQueueIdleTasks));
+		for (int i = 0; i < mDelayedTasks.size(); i++) {
+			removed.add(mDelayedTasks.get(i).task);
+		}
+		mDelayedTasks.clear();
+		synchronized (mCachedDeliveries) {
+			for (int i = 0; i < mCachedDeliveries.size(); i++) {
+				removed.add(mCachedDeliveries.get(i).task);
+			}
+			mCachedDeliveries.clear();
+		}
+		return removed;
+	}
+
+	/**
+	 * Remove all asynchronous tasks ({@link BaseTimerTask}) form the task manager.
+	 */
+	public void removeQueuedAsyncTask() {
+		List<BaseTask> removed;
+		synchronized (this) {
+			removed = takeQueuedTasks(mQueueAsyncTasks);
+		}
+		finishRemovedTasks(removed);
+	}
+
+	/**
+	 * Remove all the {@link IdleTask}'s form the task manager
+	 */
+	public void removeQueuedIdleTasks() {
+		List<BaseTask> removed;
+		synchronized (this) {
+			removed = takeQueuedTasks(mQueueIdleTasks);
+		}
+		finishRemovedTasks(removed);
+	}
+
+	/**
+	 * Define how many threads have to stay free for the real work. The
+	 * {@link IdleTask}'s are only executed when there are no other tasks
+	 * queued and more free threads than this threshold
+	 * 
+	 * @param threshold
+	 *            Number of threads, {@link #DEFAULT_IDLE_THRESHOLD} by default
+	 */
+	public void setIdleThreshold(int threshold) {
+		mIdleThreshold = threshold;
+		mCoreThread.processTasks();
+	}
+
+	/**
+	 * Get how many threads stay free for the real work
+	 * 
+	 * @return Number of threads
+	 */
+	public int getIdleThreshold() {
+		return mIdleThreshold;
+	}
+
+	/**
+	 * Check if there are tasks waiting that are not {@link IdleTask}'s
+	 */
+	boolean hasPendingWork() {
+		return mQueueSyncTasks.size() != 0;
+	}
+
+	/**
+	 * Remove all sync tasks ({@link BaseTask}) form the task manager
+	 */
+	public void removeQueuedSyncTask() {
+		List<BaseTask> removed;
+		synchronized (this) {
+			removed = takeQueuedTasks(mQueueSyncTasks);
+		}
+		finishRemovedTasks(removed);
+	}
+
+	/**
+	 * Empty a queue
+	 * 
+	 * @param queue
+	 *            The queue to empty
+	 * @return The removed tasks, including the ones that were waiting for
+	 *         their results
+	 */
+	private List<BaseTask> takeQueuedTasks(ArrayList<BaseTask> queue) {
+		ArrayList<BaseTask> removed = new ArrayList<BaseTask>(queue.size());
+		for (int i = 0; i < queue.size(); i++) {
+			BaseTask task = queue.get(i);
+			removed.addAll(takeFollowers(task));
+			removed.add(task);
+			if (task.isHedgeCopy()) {
+				onHedgeStopped(task);
+			}
+		}
+		queue.clear();
+		return removed;
+	}
+
+	/**
+	 * Finish the removed tasks with a TaskResult.TASK_MESSAGE_REMOVED result,
+	 * so their futures complete
+	 */
+	private void finishRemovedTasks(List<BaseTask> removed) {
+		for (int i = 0; i < removed.size(); i++) {
+			BaseTask task = removed.get(i);
+			finishWithoutRunning(task, task.createRemovedResult());
+		}
+	}
+
+	/**
+	 * Notify the {@link HedgePolicy} that a copy of a {@link HedgeableTask}
+	 * won't run anymore
+	 */
+	private void onHedgeStopped(BaseTask hedge) {
+		HedgeGroup group = hedge.getHedge();
+		if (group.stop()) {
+			group.policy.onHedgeFinished(group.getWinner() == hedge);
+		}
+	}
+
+	/**
+	 * Take the tasks waiting for the result of a {@link CacheableTask} that
+	 * is removed from the queues
+	 * 
+	 * @return The tasks that were waiting
+	 */
+	private List<BaseTask> takeFollowers(BaseTask task) {
+		if (isCacheable(task) && ((CacheableTask) task).getCacheKey() != null) {
+			List<BaseTask> waiting = mResultCache.completeInFlight(
+					((CacheableTask) task).getCacheKey(), task);
+			if (waiting != null) {
+				return waiting;
+			}
+		}
+		return new ArrayList<BaseTask>(0);
+	}
+
+	/**
+	 * Take all the tasks waiting for the result of a {@link CacheableTask}
+	 * 
+	 * @return The removed tasks
+	 */
+	private List<BaseTask> takeInFlightTasks() {
+		TaskResultCache cache = mResultCache;
+		if (cache == null) {
+			return new ArrayList<BaseTask>(0);
+		}
+		return cache.clearInFlight();
+	}
+
+	private void addToHistory(TaskResult result, BaseTask task, boolean executed) {
+		synchronized (mTaskHistory) {
+			mTaskHistory.add(result);
+		}
+		TaskHistoryStore store = mHistoryStore;
+		if (store != null) {
+			store.add(result, task, executed);
+		}
+	}
+
+	/**
+	 * Set the store used to keep a compact history that can be queried from
+	 * any thread, for instance to count the errors of the last minutes or to
+	 * get the average duration of a type of task. Use null to disable it
+	 * (default)
 	 * 
+	 * @param store
+	 *            The store to use
 	 */
-	public void removeAllQueuedTask() {
-		removeQueuedAsyncTask();
-		removeQueuedSyncTask();
+	public void setHistoryStore(TaskHistoryStore store) {
+		mHistoryStore = store;
 	}
 
 	/**
-	 * Remove all asynchronous tasks ({@link BaseTimerTask}) form the task manager.
+	 * Get the store with the compact history
+	 * 
+	 * @return The store, or null if it is not used
 	 */
-	public void removeQueuedAsyncTask() {
-		mQueueAsyncTasks.clear();
+	public TaskHistoryStore getHistoryStore() {
+		return mHistoryStore;
+	}
 
+	/**
+	 * Launch a copy of the {@link HedgeableTask}'s that take longer than
+	 * usual. The copy is executed before the queued tasks, the first one that
+	 * finishes wins and the other one is cancelled. Use null to disable it
+	 * (default)
+	 * 
+	 * @param policy
+	 *            The policy that defines when a copy is launched
+	 */
+	public void setHedgePolicy(HedgePolicy policy) {
+		mHedgePolicy = policy;
 	}
 
 	/**
-	 * Remove all sync tasks ({@link BaseTask}) form the task manager
+	 * Get the policy used to launch copies of the slow tasks
+	 * 
+	 * @return The policy, or null if no copies are launched
 	 */
-	public void removeQueuedSyncTask() {
-		mQueueSyncTasks.clear();
+	public HedgePolicy getHedgePolicy() {
+		return mHedgePolicy;
 	}
 
 	/**
 	 * Erase all the history tasks
 	 */
 	public void cleanAllHistory() {
-		mTaskHistory.clear();
+		synchronized (mTaskHistory) {
+			mTaskHistory.clear();
+		}
 	}
 
 	/**
@@ -234,18 +1589,22 @@ public class TaskExecutor {
 	 *         founded
 	 */
 	public TaskResult searchHistoryTask(long id) {
-
-		for (int i = 0; i < mTaskHistory.size(); i++) {
-			TaskResult result = mTaskHistory.get(i);
-			if (result.idTask() == id) {
-				return result;
+		synchronized (mTaskHistory) {
+			for (int i = 0; i < mTaskHistory.size(); i++) {
+				TaskResult result = mTaskHistory.get(i);
+				if (result.idTask() == id) {
+					return result;
+				}
 			}
 		}
 		return null;
 	}
 
 	/**
-	 * Get the hole history with all the {@link TaskResult}
+	 * Get the hole history with all the {@link TaskResult}. The list is
+	 * modified by the executor while it is running, synchronize on it to
+	 * iterate over it; to query the history from other threads use
+	 * {@link #setHistoryStore(TaskHistoryStore)}
 	 * 
 	 * @return A list containing all the {@link TaskResult}
 	 */
@@ -265,13 +1624,20 @@ public class TaskExecutor {
 	 *         otherwise.
 	 */
 	public boolean cleanHistory(TaskResult result) {
-		return mTaskHistory.remove(result);
+		synchronized (mTaskHistory) {
+			return mTaskHistory.remove(result);
+		}
 	}
 
 	private class CoreThread extends Thread implements OnFinishTaskListener {
 
+		private static final int BATCH_WAITING = 0;
+		private static final int BATCH_NO_THREAD = -1;
+
 		private final Object lock;
 		private boolean stop = false;
+		/* Set when there is something to process, to not lose notifications */
+		private boolean workPending = false;
 
 		/**
 		 * Create the core thread, Use the lock to synchronize the wait and
@@ -299,17 +1665,126 @@ public class TaskExecutor {
 		private void processTasks() {
 
 			synchronized (lock) {
+				workPending = true;
 				lock.notify();
 			}
 		}
 
+		/**
+		 * Check if the executor has been shut down and there is nothing else
+		 * to do
+		 */
+		private boolean isDrained() {
+			return mShutdown && mQueueSyncTasks.size() == 0
+					&& mQueueAsyncTasks.size() == 0 && mQueueIdleTasks.size() == 0
+					&& mCachedDeliveries.size() == 0 && mDelayedTasks.size() == 0
+					&& mRunningTasks.get() == 0
+					&& (mResultCache == null || !mResultCache.hasInFlightWaiters());
+		}
+
+		/**
+		 * Queue again the failed tasks whose retry delay has elapsed
+		 * 
+		 * @return The time in milliseconds until the next retry, or -1 if
+		 *         there are no more retries
+		 */
+		private long releaseDelayedTasks() {
+			long now = System.nanoTime();
+			long timeToWait = -1;
+			ArrayList<BaseTask> ready = null;
+			synchronized (TaskExecutor.this) {
+				for (int i = 0; i < mDelayedTasks.size(); i++) {
+					DelayedTask delayed = mDelayedTasks.get(i);
+					long remaining = (delayed.time - now) / 1000000L;
+					if (remaining <= 0) {
+						if (ready == null) {
+							ready = new ArrayList<BaseTask>();
+						}
+						ready.add(delayed.task);
+						mDelayedTasks.remove(i);
+						i--;
+					} else if (timeToWait <= 0 || remaining < timeToWait) {
+						timeToWait = remaining;
+					}
+				}
+				if (ready != null) {
+					for (int i = 0; i < ready.size(); i++) {
+						if (ready.get(i).isCancelled() || (mShutdown
+								&& ready.get(i) instanceof BaseTimerTask)) {
+							finishCancelledTask(ready.get(i));
+						} else {
+							queueTask(ready.get(i));
+						}
+					}
+				}
+			}
+			return timeToWait;
+		}
+
+		/**
+		 * Keep a failed task until the delay of its {@link RetryPolicy}
+		 * elapses
+		 */
+		private void scheduleRetry(BaseTask task) {
+			long delay = task.getRetryPolicy().getDelay(task.getAttempt());
+			DelayedTask delayed = new DelayedTask();
+			delayed.task = task;
+			delayed.time = System.nanoTime() + delay * 1000000L;
+			synchronized (TaskExecutor.this) {
+				mDelayedTasks.add(delayed);
+			}
+			mMetrics.onRetry();
+		}
+
+		/**
+		 * Stop all the threads of the pool, wait until they are dead and
+		 * notify that the executor has terminated
+		 */
+		private void terminate() {
+			List<ThreadFromPool> threads = mPool.getAllThreads();
+			mPool.stopAllThreads(false);
+			try {
+				PoolThreads.joinThreads(threads);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			stop = true;
+			synchronized (TaskExecutor.this) {
+				if (mStallWatchdog != null) {
+					mStallWatchdog.stop();
+				}
+			}
+			onTerminated();
+		}
+
 		public void run() {
 			// LogCat.i(
 			// tag,
 			// "%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%  Starting core thread");
 
+			boolean firstLoop = true;
 			while (!stop) {
+				if (!firstLoop) {
+					mMetrics.onWakeUp(System.currentTimeMillis());
+				}
+				firstLoop = false;
+
+				if (mPurgeCancelledTasks) {
+					mPurgeCancelledTasks = false;
+					removeCancelledTasks();
+				}
 				// //LogCat.i(tag, "== Processing syncQueues");
+				mDependencyTimeToWait = -1;
+				if (mDelayedTasks.size() != 0) {
+					mDependencyTimeToWait = releaseDelayedTasks();
+				}
+				if (mHedgeCandidates.size() != 0) {
+					long remaining = launchHedges();
+					if (remaining > 0 && (mDependencyTimeToWait <= 0
+							|| remaining < mDependencyTimeToWait)) {
+						mDependencyTimeToWait = remaining;
+					}
+				}
 
 				if ((mQueueSyncTasks.size() != 0)) {
 					if (executeSyncTasks()) {
@@ -319,6 +1794,14 @@ public class TaskExecutor {
 					}
 				}
 
+				if (mQueueIdleTasks.size() != 0) {
+					executeIdleTasks();
+				}
+
+				if (mCachedDeliveries.size() != 0) {
+					deliverCachedResults();
+				}
+
 				// //LogCat.i(tag, "## Processing asyncQueues");
 				if ((mQueueAsyncTasks.size() != 0)) {
 					if (executeAsyncTasks()) {
@@ -328,12 +1811,20 @@ public class TaskExecutor {
 					}
 				}
 
+				if (isDrained()) {
+					terminate();
+					break;
+				}
+
 				calculateTimeToWait();
 				if (mTimeToWait <= 0) {
 					synchronized (lock) {
 						try {
 							// //LogCat.i(tag, "Waiting...");
-							lock.wait();
+							if (!workPending && !stop) {
+								lock.wait();
+							}
+							workPending = false;
 						} catch (InterruptedException e) {
 							synchronized (mLock) {
 								e.printStackTrace();
@@ -345,7 +1836,10 @@ public class TaskExecutor {
 						try {
 							// LogCat.i(tag, "Waiting " + mTimeToWait
 							// + " milliseconds ...");
-							lock.wait(mTimeToWait);
+							if (!workPending && !stop) {
+								lock.wait(mTimeToWait);
+							}
+							workPending = false;
 						} catch (InterruptedException e) {
 							synchronized (mLock) {
 								e.printStackTrace();
@@ -362,30 +1856,139 @@ public class TaskExecutor {
 		}
 
 		/**
-		 * Check all the asynchronous tasks and get the shortest time to wait
+		 * Finish the tasks that have been resolved using the cache
 		 */
-		private void calculateTimeToWait() {
-			if (mQueueAsyncTasks.size() == 0) {
-				mTimeToWait = -1;
+		private void deliverCachedResults() {
+			ArrayList<CachedDelivery> deliveries;
+			synchronized (mCachedDeliveries) {
+				deliveries = new ArrayList<CachedDelivery>(mCachedDeliveries);
+				mCachedDeliveries.clear();
 			}
-			for (int i = 0; i < mQueueAsyncTasks.size(); i++) {
-				BaseTimerTask task = (BaseTimerTask) mQueueAsyncTasks.get(i);
-				long last = task.getLastExecutionTime();
-				long timer = task.getTimer();
-				// if (last == 0) {
-				// mTimeToWait = -1;
-				// return;
-				// }
-				long executeTime = last + timer - System.currentTimeMillis();
+			for (int i = 0; i < deliveries.size(); i++) {
+				CachedDelivery delivery = deliveries.get(i);
+				if (delivery.task.isCancelled()) {
+					finishCancelledTask(delivery.task);
+					continue;
+				}
+				delivery.task.finishWithResult(delivery.result);
+				onTaskResult(delivery.task, delivery.result);
+				if (delivery.result.saveToHistory()) {
+					addToHistory(delivery.result, delivery.task, false);
+				}
+				if (delivery.task.getTaskGroup() != null) {
+					delivery.task.getTaskGroup().onTaskFinished(delivery.task);
+				}
+			}
+		}
+
+		/**
+		 * Remove the cancelled tasks from the queues in a single pass
+		 */
+		private void removeCancelledTasks() {
+			synchronized (TaskExecutor.this) {
+				removeCancelledTasks(mQueueSyncTasks);
+				removeCancelledTasks(mQueueAsyncTasks);
+				removeCancelledTasks(mQueueIdleTasks);
+			}
+		}
+
+		private void removeCancelledTasks(ArrayList<BaseTask> queue) {
+			int size = 0;
+			for (int i = 0; i < queue.size(); i++) {
+				BaseTask task = queue.get(i);
+				if ((task.isCancelled() || !task.isOwnerAlive()) && !task.isRunning()) {
+					finishCancelledTask(task);
+				} else {
+					queue.set(size++, task);
+				}
+			}
+			for (int i = queue.size() - 1; i >= size; i--) {
+				queue.remove(i);
+			}
+		}
+
+		private void finishCancelledTask(BaseTask task) {
+			if (task.hasLostHedge()) {
+				onHedgeStopped(task);
+				return;
+			}
+			finishWithoutRunning(task, task.createCancelledResult());
+		}
 
-				if (mTimeToWait <= 0 || executeTime < mTimeToWait) {
-					mTimeToWait = executeTime;
+		/**
+		 * Check if the task has been waiting too long for a task that the
+		 * executor doesn't know
+		 * 
+		 * @return true if the task has been killed
+		 */
+		private boolean checkDependencyTimeout(BaseTask task, long now) {
+			long timeout = mDependencyTimeout;
+			if (timeout <= 0 || !task.isWaitingUntilOtherTaskFinishes()) {
+				return false;
+			}
+			long remaining = timeout - (now - task.getWaitStartTime()) / 1000000L;
+			if (remaining > 0) {
+				if (mDependencyTimeToWait <= 0 || remaining < mDependencyTimeToWait) {
+					mDependencyTimeToWait = remaining;
 				}
+				return false;
+			}
+			if (searchHistoryTask(task.getTaskIdToWait()) != null
+					|| getDependencyState(task.getTaskIdToWait()) != BlockedTaskInfo.DEPENDENCY_UNKNOWN) {
+				return false;
+			}
+			finishWithoutRunning(task, new TaskResult(task.getTaskId(), true,
+					TaskResult.TASK_MESSAGE_ERROR_CHECKING_DEPENDENCIES,
+					"Timeout waiting for the task id=" + task.getTaskIdToWait(), null));
+			return true;
+		}
 
+		/**
+		 * Check all the asynchronous tasks and get the shortest time to wait.
+		 * The core thread will wait until the latest time that still respects
+		 * the tolerance of all the timers, so all the timers that are on time
+		 * by then will be executed in the same wake up
+		 */
+		private void calculateTimeToWait() {
+			long now = System.nanoTime();
+			long timeToWait = -1;
+			for (int i = 0; i < mQueueAsyncTasks.size(); i++) {
+				BaseTimerTask task = (BaseTimerTask) mQueueAsyncTasks.get(i);
+				if (mIsBackground && !task.backGroundRunnable()) {
+					continue;
+				}
+				long executeTime = task.getTimeToExecute(now);
+				if (executeTime == Long.MAX_VALUE) {
+					// Running, the pool will notify us when it finishes
+					continue;
+				}
+				executeTime += getTolerance(task);
+				if (executeTime <= 0) {
+					// Already late: it may have become due after
+					// executeAsyncTasks() checked it, and nobody would
+					// notify us, so check it again as soon as possible
+					executeTime = 1;
+				}
+				if (timeToWait <= 0 || executeTime < timeToWait) {
+					timeToWait = executeTime;
+				}
+			}
+			if (mDependencyTimeToWait > 0
+					&& (timeToWait <= 0 || mDependencyTimeToWait < timeToWait)) {
+				timeToWait = mDependencyTimeToWait;
 			}
+			mTimeToWait = timeToWait;
 			// ////LogCat.i(tag, "Time to wait=" + getDate(mTimeToWait));
 		}
 
+		private long getTolerance(BaseTimerTask task) {
+			long tolerance = task.getTolerance();
+			if (mIsBackground) {
+				tolerance = (long) (tolerance * mBackgroundToleranceFactor);
+			}
+			return Math.min(tolerance, task.getTimer());
+		}
+
 		/**
 		 * Process the task queue (timers) for the defined threads
 		 * 
@@ -393,30 +1996,36 @@ public class TaskExecutor {
 		 */
 		private boolean executeAsyncTasks() {
 			boolean result = false;
+			int fired = 0;
 			for (int i = 0; i < mQueueAsyncTasks.size(); i++) {
 				BaseTimerTask task = (BaseTimerTask) mQueueAsyncTasks.get(i);
-				/* check if this task is on time */
-				long lastExec = (System.currentTimeMillis() - task.getLastExecutionTime());
-				boolean isTime = (lastExec >= task.getTimer()) || task.getLastExecutionTime() == 0;
-				if (isTime) {
-					// LogCat.i(tag, " IS TIME: lastExec=" +
-					// lastExec
-					// + " task.getTimer()=" + task.getTimer()
-					// + " BaseTask id=" + task.getTaskId());
-				}
-				if (task.isKillable()) {
+				long now = System.nanoTime();
+				if (!task.isOwnerAlive() && !task.isRunning()) {
+					finishWithoutRunning(task, task.createCancelledResult());
+					mQueueAsyncTasks.remove(i);
+					i--;
+				} else if (task.isKillable()) {
 					task.onKillTask(new TaskResult(task.getTaskId(), false, TaskResult.TASK_MESSAGE_REMOVED,
 							"BaseTask removed! Reasons: the flag killable has been activated", null));
 					mQueueAsyncTasks.remove(task);
-				} else if (checkTaskBeforeExecute(task) && isTime
-						&& ((mIsBackground && task.backGroundRunnable()) || !mIsBackground)) {
+					if (task.getTaskGroup() != null) {
+						task.getTaskGroup().onTaskFinished(task);
+					}
+				} else if (((mIsBackground && task.backGroundRunnable()) || !mIsBackground)
+						&& checkTaskBeforeExecute(task) && task.isTime(now)) {
 
 					ThreadFromPool freeThread = mPool.getFreeThread();
 					if (freeThread != null) {
 						// LogCat.i(tag, "Running AsyncTask. id=" +
 						// task.getTaskId());
+						task.onDispatched(now);
+						onTaskDispatched(task);
 						if (!freeThread.addTask(task)) {
+							task.onDispatchFailed();
+							onTaskNotDispatched(task);
 							i--;
+						} else {
+							fired++;
 						}
 					} else {
 						// LogCat.i(tag,
@@ -427,6 +2036,9 @@ public class TaskExecutor {
 					result = true;
 				}
 			}
+			if (fired > 0) {
+				mMetrics.onTimersFired(fired, System.currentTimeMillis());
+			}
 			return result;
 
 		}
@@ -438,18 +2050,49 @@ public class TaskExecutor {
 		 */
 		private boolean executeSyncTasks() {
 			boolean result = false;
+			long now = System.nanoTime();
+			synchronized (TaskExecutor.this) {
+				inheritPriorities();
+				sortByPriority();
+			}
 			for (int i = 0; i < mQueueSyncTasks.size(); i++) {
 				if (!mIsBackground) {
 					BaseTask task = mQueueSyncTasks.get(i);
 
-					if (checkTaskBeforeExecute(task)) {
+					if (!task.isOwnerAlive() && !task.isRunning()) {
+						// The owner has been destroyed, drop it before it runs
+						synchronized (TaskExecutor.this) {
+							mQueueSyncTasks.remove(i);
+						}
+						finishCancelledTask(task);
+						i--;
+					} else if (checkDependencyTimeout(task, now)) {
+						synchronized (TaskExecutor.this) {
+							mQueueSyncTasks.remove(task);
+						}
+						i--;
+					} else if (checkTaskBeforeExecute(task)) {
 
+						if (isBatchable(task)) {
+							int dispatched = executeBatch(i, now);
+							if (dispatched == BATCH_NO_THREAD) {
+								break;
+							}
+							if (dispatched > 0) {
+								i--;
+								result = true;
+							}
+							continue;
+						}
 						ThreadFromPool freeThread = mPool.getFreeThread();
 						if (freeThread != null) {
+							onTaskDispatched(task);
 							if (freeThread.addTask(task)) {
 								mQueueSyncTasks.remove(task);
 								// LogCat.i(tag,
 								// "# Running task. id=" + task.getTaskId());
+							} else {
+								onTaskNotDispatched(task);
 							}
 							i--;
 						} else {
@@ -465,6 +2108,307 @@ public class TaskExecutor {
 			return result;
 		}
 
+		/**
+		 * Execute the {@link IdleTask}'s while there are no other tasks
+		 * queued and there are more free threads than the idle threshold
+		 */
+		private void executeIdleTasks() {
+			if (mIsBackground) {
+				return;
+			}
+			for (int i = 0; i < mQueueIdleTasks.size(); i++) {
+				if (mQueueSyncTasks.size() != 0
+						|| mPool.getFreeThreadCount() <= mIdleThreshold) {
+					return;
+				}
+				BaseTask task = mQueueIdleTasks.get(i);
+				if (!task.isOwnerAlive() && !task.isRunning()) {
+					synchronized (TaskExecutor.this) {
+						mQueueIdleTasks.remove(i);
+					}
+					finishCancelledTask(task);
+					i--;
+					continue;
+				}
+				if (!checkTaskBeforeExecute(task)) {
+					continue;
+				}
+				ThreadFromPool freeThread = mPool.getFreeThread();
+				if (freeThread == null) {
+					return;
+				}
+				onTaskDispatched(task);
+				if (freeThread.addTask(task)) {
+					synchronized (TaskExecutor.this) {
+						mQueueIdleTasks.remove(task);
+					}
+					i--;
+				} else {
+					onTaskNotDispatched(task);
+				}
+			}
+		}
+
+		/**
+		 * Execute the queued task at the index together with the next queued
+		 * tasks with the same batch key
+		 * 
+		 * @return The number of tasks dispatched, {@link #BATCH_WAITING} if
+		 *         the batch is waiting for more tasks or
+		 *         {@link #BATCH_NO_THREAD} if there are no free threads
+		 */
+		private int executeBatch(int index, long now) {
+			BaseTask first = mQueueSyncTasks.get(index);
+			Object key = ((BatchableTask) first).getBatchKey();
+			int maxSize = mMaxBatchSize;
+			int size = 1;
+			for (int i = index + 1; i < mQueueSyncTasks.size() && size < maxSize; i++) {
+				if (isInBatch(mQueueSyncTasks.get(i), key)) {
+					size++;
+				}
+			}
+			if (size < maxSize) {
+				long remaining = mMaxBatchDelay - (now - first.getSubmitTime()) / 1000000L;
+				if (remaining > 0) {
+					if (mDependencyTimeToWait <= 0 || remaining < mDependencyTimeToWait) {
+						mDependencyTimeToWait = remaining;
+					}
+					return BATCH_WAITING;
+				}
+			}
+			ThreadFromPool freeThread = mPool.getFreeThread();
+			if (freeThread == null) {
+				return BATCH_NO_THREAD;
+			}
+			ArrayList<BaseTask> tasks = new ArrayList<BaseTask>(size);
+			tasks.add(first);
+			onTaskDispatched(first);
+			// Check them again, dispatching a task can fill its TaskGroup
+			for (int i = index + 1; i < mQueueSyncTasks.size() && tasks.size() < maxSize; i++) {
+				BaseTask task = mQueueSyncTasks.get(i);
+				if (isInBatch(task, key) && checkTaskBeforeExecute(task)) {
+					tasks.add(task);
+					onTaskDispatched(task);
+				}
+			}
+			if (!freeThread.addTask(new BatchTask(tasks))) {
+				for (int i = 0; i < tasks.size(); i++) {
+					onTaskNotDispatched(tasks.get(i));
+				}
+				return BATCH_NO_THREAD;
+			}
+			synchronized (TaskExecutor.this) {
+				for (int i = 0; i < tasks.size(); i++) {
+					mQueueSyncTasks.remove(tasks.get(i));
+				}
+			}
+			mMetrics.onBatch(tasks.size());
+			return tasks.size();
+		}
+
+		private boolean isInBatch(BaseTask task, Object key) {
+			return isBatchable(task) && !task.isCancelled() && task.isOwnerAlive()
+					&& key.equals(((BatchableTask) task).getBatchKey())
+					&& (!task.isWaitingUntilOtherTaskFinishes()
+					|| searchHistoryTask(task.getTaskIdToWait()) != null);
+		}
+
+		/**
+		 * Give to each queued task the highest priority of the queued tasks
+		 * waiting for it, directly or through other tasks, so a high priority
+		 * task doesn't wait for the low priority work queued before the task
+		 * that it depends on
+		 */
+		private void inheritPriorities() {
+			boolean waiting = false;
+			for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+				BaseTask task = mQueueSyncTasks.get(i);
+				task.clearInheritedPriority();
+				waiting |= task.isWaitingUntilOtherTaskFinishes() || task.getInputCount() != 0;
+			}
+			if (!waiting) {
+				return;
+			}
+			HashMap<Long, ArrayList<BaseTask>> tasksById = new HashMap<Long, ArrayList<BaseTask>>();
+			for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+				BaseTask task = mQueueSyncTasks.get(i);
+				ArrayList<BaseTask> tasks = tasksById.get(task.getTaskId());
+				if (tasks == null) {
+					tasks = new ArrayList<BaseTask>(1);
+					tasksById.put(task.getTaskId(), tasks);
+				}
+				tasks.add(task);
+			}
+			// Repeat until nothing changes to follow the chains. The
+			// priorities only grow, so it also ends with cycles
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int i = 0; i < mQueueSyncTasks.size(); i++) {
+					BaseTask waiter = mQueueSyncTasks.get(i);
+					if (waiter.isWaitingUntilOtherTaskFinishes()) {
+						changed |= inheritPriority(waiter, waiter.getTaskIdToWait(), tasksById);
+					}
+					for (int j = 0; j < waiter.getInputCount(); j++) {
+						if (!waiter.hasInput(j)) {
+							changed |= inheritPriority(waiter, waiter.getInputId(j), tasksById);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Give the priority of the waiter to the queued tasks with the id
+		 * 
+		 * @return true if a priority has changed
+		 */
+		private boolean inheritPriority(BaseTask waiter, long id,
+				HashMap<Long, ArrayList<BaseTask>> tasksById) {
+			ArrayList<BaseTask> tasks = tasksById.get(id);
+			if (tasks == null) {
+				return false;
+			}
+			boolean changed = false;
+			int priority = waiter.getEffectivePriority();
+			for (int i = 0; i < tasks.size(); i++) {
+				BaseTask task = tasks.get(i);
+				if (task != waiter && task.getEffectivePriority() < priority) {
+					task.inheritPriority(priority);
+					changed = true;
+				}
+			}
+			return changed;
+		}
+
+		/**
+		 * Put the tasks with higher priority first. The sort is stable, so
+		 * the tasks with the same priority keep the FIFO order
+		 */
+		private void sortByPriority() {
+			for (int i = 1; i < mQueueSyncTasks.size(); i++) {
+				if (HIGHEST_PRIORITY_FIRST.compare(mQueueSyncTasks.get(i - 1),
+						mQueueSyncTasks.get(i)) > 0) {
+					Collections.sort(mQueueSyncTasks, HIGHEST_PRIORITY_FIRST);
+					return;
+				}
+			}
+		}
+
+		private void onTaskDispatched(BaseTask task) {
+			mRunningTasks.incrementAndGet();
+			sampleResources(task);
+			if (task.getTaskGroup() != null) {
+				task.getTaskGroup().onTaskDispatched();
+			}
+			HedgePolicy policy = mHedgePolicy;
+			if (policy != null && task instanceof HedgeableTask
+					&& task.getHedge() == null) {
+				addHedgeCandidate(task, policy);
+			}
+		}
+
+		private void addHedgeCandidate(BaseTask task, HedgePolicy policy) {
+			synchronized (TaskExecutor.this) {
+				for (int i = 0; i < mHedgeCandidates.size(); i++) {
+					if (mHedgeCandidates.get(i).task == task) {
+						// A suspended task that continues
+						return;
+					}
+				}
+				policy.onTaskStarted();
+				HedgeCandidate candidate = new HedgeCandidate();
+				candidate.task = task;
+				candidate.policy = policy;
+				candidate.start = System.nanoTime();
+				long delay = policy.getHedgeDelay(task.getClass());
+				candidate.time = delay < 0 ? -1 : candidate.start + delay * 1000L;
+				mHedgeCandidates.add(candidate);
+			}
+		}
+
+		/**
+		 * Launch a copy of the running {@link HedgeableTask}'s that have been
+		 * running longer than the delay of the {@link HedgePolicy}
+		 * 
+		 * @return The time in milliseconds until the next copy, or -1 if
+		 *         there are no more copies to launch
+		 */
+		private long launchHedges() {
+			long now = System.nanoTime();
+			long timeToWait = -1;
+			synchronized (TaskExecutor.this) {
+				for (int i = 0; i < mHedgeCandidates.size(); i++) {
+					HedgeCandidate candidate = mHedgeCandidates.get(i);
+					if (candidate.time < 0) {
+						continue;
+					}
+					long remaining = (candidate.time - now) / 1000000L;
+					if (remaining > 0) {
+						if (timeToWait <= 0 || remaining < timeToWait) {
+							timeToWait = remaining;
+						}
+						continue;
+					}
+					// Only one try per task
+					candidate.time = -1;
+					BaseTask task = candidate.task;
+					if (task.isCancelled() || task.isSuspended()
+							|| !candidate.policy.tryStartHedge()) {
+						continue;
+					}
+					BaseTask hedge = ((HedgeableTask) task).newHedge();
+					if (hedge == null) {
+						candidate.policy.onHedgeFinished(false);
+						continue;
+					}
+					HedgeGroup group = new HedgeGroup(task, hedge, candidate.policy);
+					hedge.setHedge(group);
+					if (!task.attachHedge(group)) {
+						// It has just finished
+						candidate.policy.onHedgeFinished(false);
+						continue;
+					}
+					hedge.setSubmitTime(now);
+					// Ahead of the queued tasks, the caller is already late
+					mQueueSyncTasks.add(0, hedge);
+				}
+			}
+			return timeToWait;
+		}
+
+		/**
+		 * Update the {@link HedgePolicy} when a {@link HedgeableTask} or its
+		 * copy has finished
+		 */
+		private void onHedgeableTaskFinished(BaseTask task, TaskResult result) {
+			HedgeCandidate candidate = null;
+			synchronized (TaskExecutor.this) {
+				for (int i = 0; i < mHedgeCandidates.size(); i++) {
+					if (mHedgeCandidates.get(i).task == task) {
+						candidate = mHedgeCandidates.remove(i);
+						break;
+					}
+				}
+			}
+			HedgeGroup group = task.getHedge();
+			if (candidate != null && !result.error() && !task.hasLostHedge()
+					&& result.msg() != TaskResult.TASK_MESSAGE_WAIT_OTHER_TASK_TO_FINISH) {
+				candidate.policy.recordDuration(task.getClass(),
+						System.nanoTime() - candidate.start);
+			}
+			if (group != null && group.hedge == task) {
+				onHedgeStopped(task);
+			}
+		}
+
+		private void onTaskNotDispatched(BaseTask task) {
+			mRunningTasks.decrementAndGet();
+			if (task.getTaskGroup() != null) {
+				task.getTaskGroup().onTaskStopped(task, false);
+			}
+		}
+
 		/**
 		 * Check if a task should be executed
 		 * 
@@ -472,7 +2416,14 @@ public class TaskExecutor {
 		 * @return True if it should be executed
 		 */
 		private boolean checkTaskBeforeExecute(BaseTask task) {
-			if (task.isRunning()) {
+			if (task.isRunning() && !(task instanceof BaseTimerTask
+					&& ((BaseTimerTask) task).isOverlapAllowed())) {
+				return false;
+			}
+			if (task.getTaskGroup() != null && !task.getTaskGroup().hasFreeSlot()) {
+				return false;
+			}
+			if (task.getInputCount() != 0 && !receiveInputs(task)) {
 				return false;
 			}
 			if (!task.isWaitingUntilOtherTaskFinishes()) {
@@ -486,20 +2437,132 @@ public class TaskExecutor {
 			return false;
 		}
 
+		/**
+		 * Split the resources used by a batch between its sampled tasks
+		 */
+		private void shareResourceUsage(BatchTask batch) {
+			if (!batch.isResourceSampled()) {
+				return;
+			}
+			batch.finishResourceSample();
+			int size = batch.size();
+			long cpuTime = batch.getCpuTime();
+			long allocatedBytes = batch.getAllocatedBytes();
+			for (int i = 0; i < size; i++) {
+				BaseTask task = batch.getTask(i);
+				if (task.isResourceSampled()) {
+					task.addResourceUsage(batch.getRunTime() / size, cpuTime < 0 ? -1 : cpuTime
+							/ size, allocatedBytes < 0 ? -1 : allocatedBytes / size);
+				}
+			}
+		}
+
 		public void onFinishTask(TaskResult result, BaseTask task, ThreadFromPool thread) {
 
-			if (result.msg() == TaskResult.TASK_MESSAGE_WAIT_OTHER_TASK_TO_FINISH
-					&& !(task instanceof BaseTimerTask)) {
-				addTask(task);
-			} else if (result.saveToHistory()) {
-				mTaskHistory.add(result);
+			if (task instanceof BatchTask) {
+				// Finish each task of the batch as if it had run alone
+				BatchTask batch = (BatchTask) task;
+				shareResourceUsage(batch);
+				for (int i = 0; i < batch.size(); i++) {
+					onFinishTask(batch.getResult(i), batch.getTask(i), thread);
+				}
+				return;
+			}
+
+			if (!(task instanceof BaseTimerTask) && task.isSuspended()) {
+				onTaskSuspended(task);
+				return;
+			}
+			if (task instanceof HedgeableTask) {
+				onHedgeableTaskFinished(task, result);
+			}
+			// The tasks that were waiting for it don't need it anymore
+			task.clearInheritedPriority();
+			boolean waiting = result.msg() == TaskResult.TASK_MESSAGE_WAIT_OTHER_TASK_TO_FINISH;
+			boolean retrying = result.msg() == TaskResult.TASK_MESSAGE_RETRY;
+			if (!(task instanceof BaseTimerTask) && task.getSubmitTime() != 0) {
+				mMetrics.onTaskStarted(task.getStartTime() - task.getSubmitTime());
+			}
+			if (task.getTaskGroup() != null) {
+				task.getTaskGroup().onTaskStopped(task,
+						!waiting && !retrying && !(task instanceof BaseTimerTask));
+			}
+
+			if (waiting && !(task instanceof BaseTimerTask)) {
+				queueTask(task);
+			} else if (retrying) {
+				scheduleRetry(task);
+			} else {
+				if (isCacheable(task) && !task.hasLostHedge()) {
+					onCacheableTaskFinished(task, result, true);
+				}
+				if (!task.hasLostHedge()) {
+					onTaskResult(task, result);
+				}
+				if (result.saveToHistory()) {
+					addToHistory(result, task, true);
+				}
+				boolean sampled = task.isResourceSampled();
+				task.finishResourceSample();
+				if (sampled) {
+					mMetrics.onResourceUsage(task.getClass(), task.getRunTime(),
+							task.getCpuTime(), task.getAllocatedBytes());
+				}
 			}
 
 			// LogCat.i(tag, "The BaseTask (id=" + id +
 			// ") has finished. Error code ="
 			// + result.error());
 
+			mRunningTasks.decrementAndGet();
 			processTasks();
 		}
+
+		/**
+		 * Put a task that has released its thread at the end of the queue.
+		 * It doesn't go through the history nor the dependencies again
+		 */
+		private void onTaskSuspended(BaseTask task) {
+			if (task.getTaskGroup() != null) {
+				task.getTaskGroup().onTaskStopped(task, false);
+			}
+			mMetrics.onContinuation();
+			synchronized (TaskExecutor.this) {
+				if (task.park(TaskExecutor.this)) {
+					// Still counted as running until it is resumed
+					mParkedTasks.add(task);
+					return;
+				}
+			}
+			continueTask(task);
+			mRunningTasks.decrementAndGet();
+			processTasks();
+		}
+	}
+
+	private static class DelayedTask {
+		BaseTask task;
+		/* From System.nanoTime() */
+		long time;
+	}
+
+	private static class DataflowEdge {
+		/* Queued tasks that haven't received the result yet */
+		int consumers;
+		TaskResult result;
+	}
+
+	private static class HedgeCandidate {
+		BaseTask task;
+		HedgePolicy policy;
+		/* From System.nanoTime() */
+		long start;
+		/* When the copy is launched, -1 if it won't be launched */
+		long time;
+	}
+
+	private static class CachedDelivery {
+		BaseTask task;
+		TaskResult result;
 	}
 }
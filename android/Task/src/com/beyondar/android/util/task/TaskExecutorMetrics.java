@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the work done by a {@link TaskExecutor}. Use
+ * {@link TaskExecutor#getMetrics()} to get the instance of an executor.
+ */
+public class TaskExecutorMetrics {
+
+	private final RateCounter mWakeUps = new RateCounter();
+	private final RateCounter mTimerWakeUps = new RateCounter();
+	private final RateCounter mTimersFired = new RateCounter();
+	private final LatencyHistogram mStartLatency = new LatencyHistogram();
+	// Only read as totals, no need to keep them per second
+	private final AtomicLong mDirectHandoffs = new AtomicLong();
+	private final AtomicLong mRetries = new AtomicLong();
+	private final AtomicLong mContinuations = new AtomicLong();
+	private final AtomicLong mMemoryPressure = new AtomicLong();
+	private final AtomicLong mTrimmedHistory = new AtomicLong();
+	private final AtomicLong mShedTasks = new AtomicLong();
+	private final AtomicLong mDeferredTasks = new AtomicLong();
+	private final AtomicLong mStoppedIdleThreads = new AtomicLong();
+	private final AtomicLong mBatches = new AtomicLong();
+	private final AtomicLong mBatchedTasks = new AtomicLong();
+	private final HashMap<Class<?>, TaskResourceUsage> mResourceUsage = new HashMap<Class<?>, TaskResourceUsage>();
+
+	TaskExecutorMetrics() {
+	}
+
+	/**
+	 * Get how many times the core thread has woken up during the last minute
+	 * 
+	 * @return Wake ups per minute
+	 */
+	public long getWakeUpsPerMinute() {
+		return mWakeUps.getLastMinute(System.currentTimeMillis());
+	}
+
+	/**
+	 * Get how many times the core thread has woken up to run one or more
+	 * {@link BaseTimerTask}'s during the last minute
+	 * 
+	 * @return Timer wake ups per minute
+	 */
+	public long getTimerWakeUpsPerMinute() {
+		return mTimerWakeUps.getLastMinute(System.currentTimeMillis());
+	}
+
+	/**
+	 * Get how many {@link BaseTimerTask}'s have been executed during the last
+	 * minute. Comparing this value with {@link #getTimerWakeUpsPerMinute()}
+	 * shows how well the timers are being coalesced
+	 * 
+	 * @return Timer executions per minute
+	 */
+	public long getTimersFiredPerMinute() {
+		return mTimersFired.getLastMinute(System.currentTimeMillis());
+	}
+
+	/**
+	 * Get how many times the core thread has woken up
+	 * 
+	 * @return Total number of wake ups
+	 */
+	public long getTotalWakeUps() {
+		return mWakeUps.getTotal();
+	}
+
+	/**
+	 * Get the time between adding a task and the start of its execution
+	 * below which a percentage of the tasks fall. Only the tasks that are not
+	 * {@link BaseTimerTask}'s are measured
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return The latency in microseconds
+	 */
+	public long getStartLatency(double percentile) {
+		return mStartLatency.getPercentile(percentile);
+	}
+
+	/**
+	 * Get the median time between adding a task and the start of its
+	 * execution
+	 * 
+	 * @return The latency in microseconds
+	 */
+	public long getStartLatencyMedian() {
+		return mStartLatency.getPercentile(50);
+	}
+
+	/**
+	 * Get the 99th percentile of the time between adding a task and the
+	 * start of its execution
+	 * 
+	 * @return The latency in microseconds
+	 */
+	public long getStartLatencyP99() {
+		return mStartLatency.getPercentile(99);
+	}
+
+	/**
+	 * Get how many tasks have been handed directly to an idle thread, without
+	 * going through the core thread
+	 * 
+	 * @return Number of direct hand offs
+	 */
+	public long getDirectHandoffCount() {
+		return mDirectHandoffs.get();
+	}
+
+	/**
+	 * Get how many times a failed task has been scheduled to run again
+	 * 
+	 * @return Number of retries
+	 */
+	public long getRetryCount() {
+		return mRetries.get();
+	}
+
+	/**
+	 * Get how many times a {@link SlicedTask} or a {@link CompletionTask}
+	 * has released its thread to continue later
+	 * 
+	 * @return Number of continuations
+	 */
+	public long getContinuationCount() {
+		return mContinuations.get();
+	}
+
+	/**
+	 * Get how many times {@link TaskExecutor#onMemoryPressure(int)} has been
+	 * called
+	 * 
+	 * @return Number of memory pressure events
+	 */
+	public long getMemoryPressureCount() {
+		return mMemoryPressure.get();
+	}
+
+	/**
+	 * Get how many results have been removed from the history because the
+	 * memory was low
+	 * 
+	 * @return Number of removed results
+	 */
+	public long getTrimmedHistoryCount() {
+		return mTrimmedHistory.get();
+	}
+
+	/**
+	 * Get how many queued tasks have been dropped because the memory was low
+	 * 
+	 * @return Number of dropped tasks
+	 */
+	public long getShedTaskCount() {
+		return mShedTasks.get();
+	}
+
+	/**
+	 * Get how many queued tasks have been deferred because the memory was low
+	 * 
+	 * @return Number of deferred tasks
+	 */
+	public long getDeferredTaskCount() {
+		return mDeferredTasks.get();
+	}
+
+	/**
+	 * Get how many idle threads have been stopped because the memory was low
+	 * 
+	 * @return Number of stopped threads
+	 */
+	public long getStoppedIdleThreadCount() {
+		return mStoppedIdleThreads.get();
+	}
+
+	/**
+	 * Get how many batches of {@link BatchableTask}'s have been executed
+	 * 
+	 * @return Number of batches
+	 */
+	public long getBatchCount() {
+		return mBatches.get();
+	}
+
+	/**
+	 * Get how many {@link BatchableTask}'s have been executed in batches.
+	 * Divided by {@link #getBatchCount()} it gives the average batch size
+	 * 
+	 * @return Number of tasks
+	 */
+	public long getBatchedTaskCount() {
+		return mBatchedTasks.get();
+	}
+
+	/**
+	 * Get the resources used by the sampled executions of a class of tasks,
+	 * see {@link TaskExecutor#setResourceSampling(int)}
+	 * 
+	 * @param taskClass
+	 *            The class of the tasks
+	 * @return A copy of the usage, or null if no execution of the class has
+	 *         been measured
+	 */
+	public TaskResourceUsage getResourceUsage(Class<?> taskClass) {
+		synchronized (mResourceUsage) {
+			TaskResourceUsage usage = mResourceUsage.get(taskClass);
+			return usage == null ? null : new TaskResourceUsage(usage);
+		}
+	}
+
+	/**
+	 * Get the resources used by the sampled executions of all the classes of
+	 * tasks
+	 * 
+	 * @return A copy of the usage of each class
+	 */
+	public List<TaskResourceUsage> getResourceUsage() {
+		synchronized (mResourceUsage) {
+			ArrayList<TaskResourceUsage> list = new ArrayList<TaskResourceUsage>(
+					mResourceUsage.size());
+			for (TaskResourceUsage usage : mResourceUsage.values()) {
+				list.add(new TaskResourceUsage(usage));
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Reset all the counters
+	 */
+	public void reset() {
+		mWakeUps.reset();
+		mTimerWakeUps.reset();
+		mTimersFired.reset();
+		mStartLatency.reset();
+		mDirectHandoffs.set(0);
+		mRetries.set(0);
+		mContinuations.set(0);
+		mMemoryPressure.set(0);
+		mTrimmedHistory.set(0);
+		mShedTasks.set(0);
+		mDeferredTasks.set(0);
+		mStoppedIdleThreads.set(0);
+		mBatches.set(0);
+		mBatchedTasks.set(0);
+		synchronized (mResourceUsage) {
+			mResourceUsage.clear();
+		}
+	}
+
+	void onWakeUp(long now) {
+		mWakeUps.record(now);
+	}
+
+	void onTaskStarted(long latencyNanos) {
+		mStartLatency.record(latencyNanos / 1000);
+	}
+
+	void onRetry() {
+		mRetries.incrementAndGet();
+	}
+
+	void onMemoryPressure(int trimmedHistory, int shed, int deferred, int stoppedThreads) {
+		mMemoryPressure.incrementAndGet();
+		mTrimmedHistory.addAndGet(trimmedHistory);
+		mShedTasks.addAndGet(shed);
+		mDeferredTasks.addAndGet(deferred);
+		mStoppedIdleThreads.addAndGet(stoppedThreads);
+	}
+
+	void onContinuation() {
+		mContinuations.incrementAndGet();
+	}
+
+	void onDirectHandoff() {
+		mDirectHandoffs.incrementAndGet();
+	}
+
+	void onBatch(int tasks) {
+		mBatches.incrementAndGet();
+		mBatchedTasks.addAndGet(tasks);
+	}
+
+	void onResourceUsage(Class<?> taskClass, long runTime, long cpuTime, long allocatedBytes) {
+		synchronized (mResourceUsage) {
+			TaskResourceUsage usage = mResourceUsage.get(taskClass);
+			if (usage == null) {
+				usage = new TaskResourceUsage(taskClass);
+				mResourceUsage.put(taskClass, usage);
+			}
+			usage.record(runTime, cpuTime, allocatedBytes);
+		}
+	}
+
+	void onTimersFired(int timers, long now) {
+		mTimerWakeUps.record(now);
+		mTimersFired.record(now, timers);
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes a {@link TaskExecutor} as a {@link ScheduledExecutorService}, so the
+ * libraries that expect the standard interfaces can share its threads
+ * instead of creating their own pool. The runnables are executed directly in
+ * the threads of the pool as {@link BaseTask}'s, and the periodic ones as
+ * {@link BaseTimerTask}'s. Their results are not saved in the history of the
+ * executor.
+ * 
+ * <pre>
+ * ExecutorService service = new TaskExecutorService(TaskExecutor.getInstance());
+ * Future&lt;Bitmap&gt; bitmap = service.submit(new DecodeCallable(file));
+ * </pre>
+ */
+public class TaskExecutorService extends AbstractExecutorService implements
+		ScheduledExecutorService {
+
+	private final TaskExecutor mExecutor;
+
+	/**
+	 * Create the adapter
+	 * 
+	 * @param executor
+	 *            The executor that runs the tasks
+	 */
+	public TaskExecutorService(TaskExecutor executor) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * Get the executor that runs the tasks
+	 * 
+	 * @return The executor
+	 */
+	public TaskExecutor getTaskExecutor() {
+		return mExecutor;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		checkNotShutdown();
+		mExecutor.addTask(new RunnableAdapter(command));
+	}
+
+	/**
+	 * Add a task to the executor and get a future of its result. The future
+	 * is completed in the thread of the pool that finishes the task
+	 * 
+	 * @param task
+	 *            The task to add
+	 * @return The future of the result
+	 */
+	public TaskFuture submitTask(BaseTask task) {
+		checkNotShutdown();
+		TaskFuture future = new TaskFuture(task);
+		task.setFuture(future);
+		mExecutor.addTask(task);
+		return future;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		ScheduledTask<Object> future = new ScheduledTask<Object>(command, null,
+				toNanos(delay, unit), 0);
+		schedule(future, new RunnableAdapter(future), delay, unit);
+		return future;
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		ScheduledTask<V> future = new ScheduledTask<V>(callable, toNanos(delay, unit));
+		schedule(future, new RunnableAdapter(future), delay, unit);
+		return future;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+			long period, TimeUnit unit) {
+		return schedulePeriodic(command, initialDelay, period, unit,
+				BaseTimerTask.MODE_FIXED_RATE);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+			long delay, TimeUnit unit) {
+		return schedulePeriodic(command, initialDelay, delay, unit,
+				BaseTimerTask.MODE_FIXED_DELAY);
+	}
+
+	private ScheduledFuture<?> schedulePeriodic(Runnable command, long initialDelay,
+			long period, TimeUnit unit, int mode) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("The period must be positive");
+		}
+		ScheduledTask<Object> future = new ScheduledTask<Object>(command, null,
+				toNanos(initialDelay, unit), unit.toNanos(period));
+		PeriodicTask timer = new PeriodicTask(future, Math.max(unit.toMillis(period), 1));
+		timer.setExecutionMode(mode);
+		// Like ScheduledThreadPoolExecutor: the late executions start one
+		// after the other, never at the same time
+		timer.setCatchUpPolicy(BaseTimerTask.CATCH_UP_BURST);
+		schedule(future, timer, initialDelay, unit);
+		return future;
+	}
+
+	private void schedule(ScheduledTask<?> future, BaseTask task, long delay, TimeUnit unit) {
+		if (unit == null) {
+			throw new NullPointerException();
+		}
+		checkNotShutdown();
+		future.mTask = task;
+		mExecutor.addDelayedTask(task, unit.toMillis(delay));
+	}
+
+	private static long toNanos(long delay, TimeUnit unit) {
+		return System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+	}
+
+	private void checkNotShutdown() {
+		if (mExecutor.isShutdown()) {
+			throw new RejectedExecutionException("The TaskExecutor has been shut down");
+		}
+	}
+
+	/**
+	 * Shut down the {@link TaskExecutor}, see {@link TaskExecutor#shutdown()}
+	 */
+	@Override
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Shut down the {@link TaskExecutor}, see
+	 * {@link TaskExecutor#shutdownNow()}
+	 * 
+	 * @return The runnables that have not been executed. The other queued
+	 *         tasks are not included
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<BaseTask> removed = mExecutor.shutdownNow();
+		ArrayList<Runnable> runnables = new ArrayList<Runnable>();
+		for (int i = 0; i < removed.size(); i++) {
+			if (removed.get(i) instanceof RunnableAdapter) {
+				runnables.add(((RunnableAdapter) removed.get(i)).mRunnable);
+			}
+		}
+		return runnables;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return mExecutor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return mExecutor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return mExecutor.awaitTermination(Math.max(unit.toMillis(timeout), 1));
+	}
+
+	/* The results of the adapters don't go to the history */
+	private static TaskResult createResult(BaseTask task, Throwable error) {
+		if (error == null) {
+			return new TaskResult(task.getTaskId(), false, TaskResult.TASK_MESSAGE_UNKNOWN,
+					null, null, false);
+		}
+		return new TaskResult(task.getTaskId(), true, TaskResult.TASK_MESSAGE_UNKNOWN,
+				error.toString(), error, false);
+	}
+
+	private static TaskResult createCancelledResult(BaseTask task) {
+		return new TaskResult(task.getTaskId(), false, TaskResult.TASK_MESSAGE_REMOVED,
+				null, null, false);
+	}
+
+	/**
+	 * Runs a {@link Runnable} in the pool
+	 */
+	private static class RunnableAdapter extends BaseTask {
+		final Runnable mRunnable;
+
+		RunnableAdapter(Runnable runnable) {
+			super();
+			mRunnable = runnable;
+		}
+
+		@Override
+		public void onKillTask(TaskResult outputCode) {
+			// Removed from the queue: the future won't run anymore
+			if (mRunnable instanceof ScheduledTask) {
+				((ScheduledTask<?>) mRunnable).cancel(false);
+			}
+		}
+
+		@Override
+		public TaskResult runTask() {
+			try {
+				mRunnable.run();
+			} catch (RuntimeException e) {
+				return createResult(this, e);
+			}
+			return createResult(this, null);
+		}
+
+		@Override
+		public void onFinish() {
+		}
+
+		@Override
+		TaskResult createCancelledResult() {
+			return TaskExecutorService.createCancelledResult(this);
+		}
+
+		@Override
+		TaskResult createRemovedResult() {
+			return TaskExecutorService.createCancelledResult(this);
+		}
+	}
+
+	/**
+	 * Runs a periodic {@link ScheduledTask} in the pool
+	 */
+	private static class PeriodicTask extends BaseTimerTask {
+		private final ScheduledTask<?> mFuture;
+
+		PeriodicTask(ScheduledTask<?> future, long period) {
+			super(System.identityHashCode(future), period);
+			mFuture = future;
+		}
+
+		@Override
+		public void onKillTask(TaskResult outputCode) {
+			mFuture.cancel(false);
+		}
+
+		@Override
+		public TaskResult runTask() {
+			if (!mFuture.runPeriod()) {
+				// Cancelled or failed: no more executions
+				killTask();
+			}
+			return createResult(this, null);
+		}
+
+		@Override
+		public void onFinish() {
+		}
+
+		@Override
+		TaskResult createCancelledResult() {
+			return TaskExecutorService.createCancelledResult(this);
+		}
+
+		@Override
+		TaskResult createRemovedResult() {
+			return TaskExecutorService.createCancelledResult(this);
+		}
+	}
+
+	private static class ScheduledTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+		/* From System.nanoTime() */
+		private volatile long mTime;
+		private final long mPeriod;
+		volatile BaseTask mTask;
+
+		ScheduledTask(Runnable runnable, V result, long time, long period) {
+			super(runnable, result);
+			mTime = time;
+			mPeriod = period;
+		}
+
+		ScheduledTask(Callable<V> callable, long time) {
+			super(callable);
+			mTime = time;
+			mPeriod = 0;
+		}
+
+		/**
+		 * Run one period
+		 * 
+		 * @return false if there won't be more periods
+		 */
+		boolean runPeriod() {
+			if (!runAndReset()) {
+				return false;
+			}
+			mTime = System.nanoTime() + mPeriod;
+			return true;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			BaseTask task = mTask;
+			if (cancelled && task != null) {
+				if (task instanceof BaseTimerTask) {
+					((BaseTimerTask) task).killTask();
+				}
+				task.cancel();
+			}
+			return cancelled;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(mTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this) {
+				return 0;
+			}
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+}
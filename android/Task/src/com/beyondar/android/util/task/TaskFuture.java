@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Future} of the {@link TaskResult} of a task submitted with
+ * {@link TaskExecutorService#submitTask(BaseTask)}. It is completed in the
+ * thread of the pool that finishes the task, and the listeners added with
+ * {@link #addListener(OnTaskCompleteListener)} are executed there too, so
+ * chaining work doesn't need an other thread.
+ */
+public class TaskFuture implements Future<TaskResult> {
+
+	private final BaseTask mTask;
+	private final CountDownLatch mDone = new CountDownLatch(1);
+	private volatile TaskResult mResult;
+	private volatile boolean mCancelled;
+	/* null once the future is completed */
+	private ArrayList<OnTaskCompleteListener> mListeners = new ArrayList<OnTaskCompleteListener>();
+
+	TaskFuture(BaseTask task) {
+		mTask = task;
+	}
+
+	/**
+	 * Get the task of this future
+	 * 
+	 * @return The task
+	 */
+	public BaseTask getTask() {
+		return mTask;
+	}
+
+	/**
+	 * Add a listener to be notified when the task finishes. If it has
+	 * already finished the listener is executed now, in this thread
+	 * 
+	 * @param listener
+	 *            The listener
+	 */
+	public void addListener(OnTaskCompleteListener listener) {
+		synchronized (this) {
+			if (mListeners != null) {
+				mListeners.add(listener);
+				return;
+			}
+		}
+		listener.onTaskComplete(this);
+	}
+
+	/**
+	 * Complete the future
+	 * 
+	 * @return false if it was already completed
+	 */
+	boolean complete(TaskResult result) {
+		ArrayList<OnTaskCompleteListener> listeners;
+		synchronized (this) {
+			if (mListeners == null) {
+				return false;
+			}
+			mResult = result;
+			listeners = mListeners;
+			mListeners = null;
+		}
+		mDone.countDown();
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).onTaskComplete(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel the task. If it is running, the task has to check
+	 * {@link BaseTask#isCancelled()} to stop
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (mListeners == null) {
+				return false;
+			}
+			mCancelled = true;
+		}
+		mTask.cancel();
+		complete(mTask.createCancelledResult());
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return mDone.getCount() == 0;
+	}
+
+	/**
+	 * Wait until the task finishes. A failed task doesn't throw an
+	 * {@link ExecutionException}, check {@link TaskResult#error()}
+	 */
+	@Override
+	public TaskResult get() throws InterruptedException, ExecutionException {
+		mDone.await();
+		return getResult();
+	}
+
+	@Override
+	public TaskResult get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!mDone.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	private TaskResult getResult() {
+		if (mCancelled) {
+			throw new CancellationException();
+		}
+		return mResult;
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * A set of related tasks, for instance all the tasks launched by one screen.
+ * The tasks are added to the group using
+ * {@link TaskExecutor#addTask(Task, TaskGroup)}. The group can limit how many
+ * of its tasks run at the same time, notify when all of them have finished
+ * and cancel all of them at once.
+ */
+public class TaskGroup {
+
+	/** Use this value to allow any number of tasks running at the same time */
+	public static final int UNLIMITED = 0;
+
+	private final String mName;
+	/* Tasks of the group that are queued or running */
+	private final LinkedHashSet<BaseTask> mTasks;
+	private volatile int mMaxConcurrency;
+	private int mRunning;
+	private long mFinishedCount;
+	private long mCancelledCount;
+	private TaskExecutor mTaskExecutor;
+	private volatile OnTaskGroupFinishListener mListener;
+
+	/**
+	 * Create a group without concurrency limit
+	 * 
+	 * @param name
+	 *            The name of the group
+	 */
+	public TaskGroup(String name) {
+		this(name, UNLIMITED);
+	}
+
+	/**
+	 * Create a group
+	 * 
+	 * @param name
+	 *            The name of the group
+	 * @param maxConcurrency
+	 *            The maximum number of tasks of this group running at the same
+	 *            time, or {@link #UNLIMITED}
+	 */
+	public TaskGroup(String name, int maxConcurrency) {
+		mName = name;
+		mMaxConcurrency = maxConcurrency;
+		mTasks = new LinkedHashSet<BaseTask>();
+	}
+
+	/**
+	 * Get the name of the group
+	 * 
+	 * @return The name
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Define the maximum number of tasks of this group running at the same
+	 * time
+	 * 
+	 * @param maxConcurrency
+	 *            The maximum, or {@link #UNLIMITED}
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		mMaxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * Get the maximum number of tasks of this group running at the same time
+	 * 
+	 * @return The maximum, or {@link #UNLIMITED}
+	 */
+	public int getMaxConcurrency() {
+		return mMaxConcurrency;
+	}
+
+	/**
+	 * Set the listener to notify every time that the group runs out of
+	 * pending tasks. This way there is no need to block any thread waiting
+	 * for the tasks
+	 * 
+	 * @param listener
+	 *            The listener, or null to remove it
+	 */
+	public void setOnTaskGroupFinishListener(OnTaskGroupFinishListener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Get the number of tasks of this group that are queued or running
+	 * 
+	 * @return Number of pending tasks
+	 */
+	public synchronized int getPendingCount() {
+		return mTasks.size();
+	}
+
+	/**
+	 * Get the number of tasks of this group that are running
+	 * 
+	 * @return Number of running tasks
+	 */
+	public synchronized int getRunningCount() {
+		return mRunning;
+	}
+
+	/**
+	 * Get the number of tasks of this group that have finished
+	 * 
+	 * @return Number of finished tasks, including the cancelled ones
+	 */
+	public synchronized long getFinishedCount() {
+		return mFinishedCount;
+	}
+
+	/**
+	 * Get the number of tasks of this group that have been cancelled
+	 * 
+	 * @return Number of cancelled tasks
+	 */
+	public synchronized long getCancelledCount() {
+		return mCancelledCount;
+	}
+
+	/**
+	 * Check if all the tasks of this group have finished
+	 * 
+	 * @return true if there are no pending tasks
+	 */
+	public synchronized boolean isIdle() {
+		return mTasks.size() == 0;
+	}
+
+	/**
+	 * Cancel all the pending tasks of this group. The queued tasks will be
+	 * removed without being executed and the running ones will be notified
+	 * through {@link BaseTask#isCancelled()}, so they can stop as soon as
+	 * possible. The group can be used again after calling this method
+	 */
+	public void cancelAll() {
+		TaskExecutor taskExecutor;
+		ArrayList<BaseTask> tasks;
+		synchronized (this) {
+			tasks = new ArrayList<BaseTask>(mTasks);
+			taskExecutor = mTaskExecutor;
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			BaseTask task = tasks.get(i);
+			task.cancel();
+			if (task instanceof BaseTimerTask) {
+				((BaseTimerTask) task).killTask();
+			}
+		}
+		if (taskExecutor != null && tasks.size() > 0) {
+			taskExecutor.onTasksCancelled();
+		}
+	}
+
+	/**
+	 * Check if the tasks of this group can still run. The tasks of an inactive
+	 * group are removed before being executed
+	 * 
+	 * @return true if the tasks can run
+	 */
+	boolean isActive() {
+		return true;
+	}
+
+	synchronized void addTask(BaseTask task, TaskExecutor taskExecutor) {
+		mTaskExecutor = taskExecutor;
+		mTasks.add(task);
+	}
+
+	/**
+	 * Check if an other task of this group can start running
+	 */
+	synchronized boolean hasFreeSlot() {
+		return mMaxConcurrency <= UNLIMITED || mRunning < mMaxConcurrency;
+	}
+
+	synchronized void onTaskDispatched() {
+		mRunning++;
+	}
+
+	/**
+	 * Notify that a task of this group has stopped running
+	 * 
+	 * @param task
+	 *            The task
+	 * @param finished
+	 *            false if the task will run again (for instance when it is
+	 *            waiting for an other task)
+	 */
+	void onTaskStopped(BaseTask task, boolean finished) {
+		synchronized (this) {
+			if (mRunning > 0) {
+				mRunning--;
+			}
+		}
+		if (finished) {
+			onTaskFinished(task);
+		}
+	}
+
+	/**
+	 * Notify that a task of this group won't run anymore
+	 * 
+	 * @param task
+	 *            The task
+	 */
+	void onTaskFinished(BaseTask task) {
+		boolean idle;
+		synchronized (this) {
+			if (!mTasks.remove(task)) {
+				return;
+			}
+			mFinishedCount++;
+			if (task.isCancelled()) {
+				mCancelledCount++;
+			}
+			idle = mTasks.size() == 0;
+		}
+		OnTaskGroupFinishListener listener = mListener;
+		if (idle && listener != null) {
+			listener.onTaskGroupFinish(this);
+		}
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact history of the finished tasks, used by the {@link TaskExecutor}
+ * when it is set with {@link TaskExecutor#setHistoryStore(TaskHistoryStore)}.
+ * Unlike {@link TaskExecutor#getHistory()} it doesn't keep the
+ * {@link TaskResult}'s: it stores the id, the message code, the error flag,
+ * the finish time, the latency, the duration and the class of each task in
+ * primitive arrays, using less than 64 bytes per entry. The oldest entries
+ * are removed when the capacity is reached.<br>
+ * The queries ({@link #query(HistoryQuery)}) work on a snapshot and don't
+ * lock the store, so they can be executed from any thread while the
+ * executor keeps adding entries.
+ */
+public class TaskHistoryStore {
+
+	/** Default number of entries of the store */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final Object mLock = new Object();
+	private final int mMaxSegments;
+
+	/* The oldest segment first, replaced when a segment is added */
+	private volatile HistorySegment[] mSegments = new HistorySegment[0];
+	/* Number of entries ever added, written after each entry */
+	private volatile long mCount;
+	private volatile Class<?>[] mClasses = new Class<?>[0];
+
+	private final HashMap<Class<?>, Integer> mClassIds = new HashMap<Class<?>, Integer>();
+	private long mLastTime;
+
+	/**
+	 * Create a store with {@link #DEFAULT_CAPACITY} entries
+	 */
+	public TaskHistoryStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a store
+	 *
+	 * @param capacity
+	 *            Minimum number of entries to keep. The entries are removed
+	 *            in blocks of 256, so the store can keep up to 255 more
+	 */
+	public TaskHistoryStore(int capacity) {
+		mMaxSegments = (capacity + HistorySegment.SIZE - 1) / HistorySegment.SIZE + 1;
+	}
+
+	/**
+	 * Add the result of a task
+	 * 
+	 * @param executed
+	 *            false if the task has finished without being executed, so
+	 *            it has no latency nor duration
+	 */
+	void add(TaskResult result, BaseTask task, boolean executed) {
+		long now = System.nanoTime();
+		Class<?> taskClass = task instanceof SimpleTask ? ((SimpleTask) task).getTask()
+				.getClass() : task.getClass();
+		int latency = -1;
+		int duration = -1;
+		if (executed && task.getStartTime() != 0) {
+			if (task.getSubmitTime() != 0) {
+				latency = toMicros(task.getStartTime() - task.getSubmitTime());
+			}
+			duration = toMicros(now - task.getStartTime());
+		}
+		synchronized (mLock) {
+			HistorySegment[] segments = mSegments;
+			long count = mCount;
+			HistorySegment segment = segments.length == 0 ? null
+					: segments[segments.length - 1];
+			if (segment == null || segment.size == HistorySegment.SIZE) {
+				segment = new HistorySegment(count);
+				int keep = Math.min(segments.length, mMaxSegments - 1);
+				HistorySegment[] newSegments = new HistorySegment[keep + 1];
+				System.arraycopy(segments, segments.length - keep, newSegments, 0, keep);
+				newSegments[keep] = segment;
+				mSegments = newSegments;
+			}
+			// The queries need the times in order
+			long time = Math.max(System.currentTimeMillis(), mLastTime);
+			mLastTime = time;
+
+			int pos = segment.size;
+			segment.ids[pos] = result.idTask();
+			segment.msgs[pos] = result.msg();
+			segment.flags[pos] = result.error() ? HistorySegment.FLAG_ERROR : 0;
+			segment.times[pos] = time;
+			segment.latencies[pos] = latency;
+			segment.durations[pos] = duration;
+			segment.classIds[pos] = getClassId(taskClass);
+			segment.size++;
+			if (segment.size == HistorySegment.SIZE) {
+				segment.buildIndex();
+			}
+			// Publish the entry
+			mCount = count + 1;
+		}
+	}
+
+	private int getClassId(Class<?> taskClass) {
+		Integer id = mClassIds.get(taskClass);
+		if (id != null) {
+			return id;
+		}
+		Class<?>[] classes = new Class<?>[mClasses.length + 1];
+		System.arraycopy(mClasses, 0, classes, 0, mClasses.length);
+		classes[mClasses.length] = taskClass;
+		mClasses = classes;
+		mClassIds.put(taskClass, mClasses.length - 1);
+		return mClasses.length - 1;
+	}
+
+	private static int toMicros(long nanos) {
+		if (nanos < 0) {
+			return -1;
+		}
+		return (int) Math.min(nanos / 1000, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the entries that match the query, from the newest to the oldest
+	 *
+	 * @param query
+	 *            The filter
+	 * @return A cursor over a snapshot of the store
+	 */
+	public HistoryCursor query(HistoryQuery query) {
+		// Read the count first, the segments and the classes include all the
+		// entries below it
+		long count = mCount;
+		return new HistoryCursor(mSegments, count, mClasses, query);
+	}
+
+	/**
+	 * Count the entries that match the query
+	 *
+	 * @param query
+	 *            The filter
+	 * @return Number of entries
+	 */
+	public int count(HistoryQuery query) {
+		HistoryCursor cursor = query(query);
+		int count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Count the entries that match the query grouped by message code
+	 *
+	 * @param query
+	 *            The filter
+	 * @return A map from the message code to the number of entries
+	 */
+	public Map<Integer, Integer> countByMsg(HistoryQuery query) {
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		HistoryCursor cursor = query(query);
+		while (cursor.next()) {
+			Integer count = counts.get(cursor.getMsg());
+			counts.put(cursor.getMsg(), count == null ? 1 : count + 1);
+		}
+		return counts;
+	}
+
+	/**
+	 * Get the average time that the tasks that match the query waited in the
+	 * queue
+	 *
+	 * @param query
+	 *            The filter
+	 * @return The time in microseconds, or -1 if no entry has a latency
+	 */
+	public long getAverageLatency(HistoryQuery query) {
+		HistoryCursor cursor = query(query);
+		long sum = 0;
+		int count = 0;
+		while (cursor.next()) {
+			if (cursor.getLatency() >= 0) {
+				sum += cursor.getLatency();
+				count++;
+			}
+		}
+		return count == 0 ? -1 : sum / count;
+	}
+
+	/**
+	 * Get the average execution time of the tasks that match the query
+	 *
+	 * @param query
+	 *            The filter
+	 * @return The time in microseconds, or -1 if no entry has been executed
+	 */
+	public long getAverageDuration(HistoryQuery query) {
+		HistoryCursor cursor = query(query);
+		long sum = 0;
+		int count = 0;
+		while (cursor.next()) {
+			if (cursor.getDuration() >= 0) {
+				sum += cursor.getDuration();
+				count++;
+			}
+		}
+		return count == 0 ? -1 : sum / count;
+	}
+
+	/**
+	 * Get the number of entries in the store
+	 *
+	 * @return Number of entries
+	 */
+	public int size() {
+		long count = mCount;
+		HistorySegment[] segments = mSegments;
+		if (segments.length == 0) {
+			return 0;
+		}
+		return (int) Math.max(count - segments[0].base, 0);
+	}
+
+	/**
+	 * Remove all the entries. The cursors that are being used keep their
+	 * snapshot
+	 */
+	public void clear() {
+		synchronized (mLock) {
+			mSegments = new HistorySegment[0];
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Resources used by the sampled executions of a class of tasks: the time in
+ * the threads of the pool, the CPU time and the allocated memory. A task that
+ * uses much less CPU than run time is blocked (I/O, locks...) rather than
+ * doing work. Use {@link TaskExecutorMetrics#getResourceUsage(Class)} to get
+ * it.
+ */
+public class TaskResourceUsage {
+
+	private final Class<?> mTaskClass;
+	private long mCount;
+	private long mRunTime;
+	private long mCpuCount;
+	private long mCpuTime;
+	private long mMaxCpuTime;
+	private long mAllocationCount;
+	private long mAllocatedBytes;
+	private long mMaxAllocatedBytes;
+
+	TaskResourceUsage(Class<?> taskClass) {
+		mTaskClass = taskClass;
+	}
+
+	TaskResourceUsage(TaskResourceUsage usage) {
+		mTaskClass = usage.mTaskClass;
+		mCount = usage.mCount;
+		mRunTime = usage.mRunTime;
+		mCpuCount = usage.mCpuCount;
+		mCpuTime = usage.mCpuTime;
+		mMaxCpuTime = usage.mMaxCpuTime;
+		mAllocationCount = usage.mAllocationCount;
+		mAllocatedBytes = usage.mAllocatedBytes;
+		mMaxAllocatedBytes = usage.mMaxAllocatedBytes;
+	}
+
+	void record(long runTime, long cpuTime, long allocatedBytes) {
+		mCount++;
+		mRunTime += runTime;
+		if (cpuTime >= 0) {
+			mCpuCount++;
+			mCpuTime += cpuTime;
+			mMaxCpuTime = Math.max(mMaxCpuTime, cpuTime);
+		}
+		if (allocatedBytes >= 0) {
+			mAllocationCount++;
+			mAllocatedBytes += allocatedBytes;
+			mMaxAllocatedBytes = Math.max(mMaxAllocatedBytes, allocatedBytes);
+		}
+	}
+
+	/**
+	 * Get the class of the tasks
+	 * 
+	 * @return The class
+	 */
+	public Class<?> getTaskClass() {
+		return mTaskClass;
+	}
+
+	/**
+	 * Get how many executions have been measured
+	 * 
+	 * @return Number of executions
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Get the average time of an execution in the threads of the pool
+	 * 
+	 * @return The time in microseconds
+	 */
+	public long getAverageRunTime() {
+		return mCount == 0 ? 0 : mRunTime / mCount / 1000;
+	}
+
+	/**
+	 * Get the average CPU time of an execution
+	 * 
+	 * @return The time in microseconds, or -1 if the CPU time is not measured
+	 */
+	public long getAverageCpuTime() {
+		return mCpuCount == 0 ? -1 : mCpuTime / mCpuCount / 1000;
+	}
+
+	/**
+	 * Get the longest CPU time of an execution
+	 * 
+	 * @return The time in microseconds, or -1 if the CPU time is not measured
+	 */
+	public long getMaxCpuTime() {
+		return mCpuCount == 0 ? -1 : mMaxCpuTime / 1000;
+	}
+
+	/**
+	 * Get which part of the run time the tasks have been using the CPU. Close
+	 * to 1 the tasks are CPU bound, close to 0 they are mostly blocked
+	 * 
+	 * @return The ratio, or -1 if the CPU time is not measured
+	 */
+	public float getCpuRatio() {
+		if (mCpuCount == 0 || mRunTime == 0) {
+			return -1;
+		}
+		return Math.min((float) mCpuTime / mRunTime, 1f);
+	}
+
+	/**
+	 * Get the average memory allocated by an execution
+	 * 
+	 * @return The number of bytes, or -1 if the allocations are not measured
+	 */
+	public long getAverageAllocatedBytes() {
+		return mAllocationCount == 0 ? -1 : mAllocatedBytes / mAllocationCount;
+	}
+
+	/**
+	 * Get the most memory allocated by an execution
+	 * 
+	 * @return The number of bytes, or -1 if the allocations are not measured
+	 */
+	public long getMaxAllocatedBytes() {
+		return mAllocationCount == 0 ? -1 : mMaxAllocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return mTaskClass.getName() + " count=" + mCount + " run=" + getAverageRunTime()
+				+ "us cpu=" + getAverageCpuTime() + "us allocated=" + getAverageAllocatedBytes()
+				+ "B";
+	}
+
+}
@@ -49,6 +49,30 @@ public class TaskResult {
 	 * executed
 	 */
 	public static final int TASK_MESSAGE_WAIT_OTHER_TASK_TO_FINISH = TASK_MESSAGE_UNKNOWN + 103;
+	/**
+	 * The task has failed and it will be executed again according to its
+	 * {@link RetryPolicy}. The failed result is attached as the object
+	 * message
+	 */
+	public static final int TASK_MESSAGE_RETRY = TASK_MESSAGE_UNKNOWN + 104;
+	/**
+	 * The task has been removed from the queue without being executed
+	 * because the memory was low
+	 */
+	public static final int TASK_MESSAGE_SHED = TASK_MESSAGE_UNKNOWN + 105;
+	/**
+	 * The task has released its thread without finishing, it will continue
+	 * the next time it gets a thread. See {@link SlicedTask}
+	 */
+	public static final int TASK_MESSAGE_CONTINUE = TASK_MESSAGE_UNKNOWN + 106;
+
+	/*
+	 * Shared result to mark that a task continues later. It is never saved in
+	 * the history, so its id is not used
+	 */
+	static final TaskResult CONTINUE = new TaskResult(0, false, TASK_MESSAGE_CONTINUE,
+			null, null, false);
+
 	private final long mId;
 	private final Object mResult;
 	private final String mStrData;
@@ -152,6 +176,21 @@ public class TaskResult {
 		mSaveToHistory = saveToHistory;
 	}
 
+	/**
+	 * Create a copy of this result that belongs to an other task
+	 * 
+	 * @param id
+	 *            The id of the task that will own the copy
+	 * @return The new {@link TaskResult}
+	 */
+	TaskResult copyForTask(long id) {
+		if (id == mId) {
+			return this;
+		}
+		return new TaskResult(id, mError, mMsg, mStrData, mResult,
+				mSaveToHistory);
+	}
+
 	/**
 	 * Get if this task result should be saved in the history
 	 *
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Cache used by the {@link TaskExecutor} to store the {@link TaskResult} of
+ * the {@link CacheableTask}'s. The results are evicted using a weighted LRU
+ * policy and, optionally, after a time to live.<br>
+ * While a task with a certain key is being executed, the other tasks with the
+ * same key will wait for its result instead of being executed too.
+ * 
+ */
+public class TaskResultCache {
+
+	/** Use this value to keep the results until they are evicted by weight */
+	public static final long NO_TTL = 0;
+
+	private final Object mLock = new Object();
+	/* Access ordered, the first entry is the least recently used */
+	private final LinkedHashMap<Object, CacheEntry> mEntries;
+	/* Tasks waiting for the result of a task that is being executed */
+	private final HashMap<Object, InFlight> mInFlight;
+
+	private long mMaxWeight;
+	private long mTtl;
+	private long mWeight;
+
+	private long mHits;
+	private long mMisses;
+	private long mSharedMisses;
+	private long mEvictions;
+	private long mExpirations;
+
+	/**
+	 * Create a new cache
+	 * 
+	 * @param maxWeight
+	 *            The maximum sum of the weights of the cached results
+	 * @param ttl
+	 *            The time to live (in milliseconds) of each result. Use
+	 *            {@link #NO_TTL} to keep them until they are evicted
+	 */
+	public TaskResultCache(long maxWeight, long ttl) {
+		mEntries = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true);
+		mInFlight = new HashMap<Object, InFlight>();
+		mMaxWeight = maxWeight;
+		mTtl = ttl;
+	}
+
+	/**
+	 * Get the cached result for the key
+	 * 
+	 * @param key
+	 *            The cache key
+	 * @return The cached {@link TaskResult} or null if there is no valid
+	 *         result for this key
+	 */
+	public TaskResult get(Object key) {
+		synchronized (mLock) {
+			CacheEntry entry = mEntries.get(key);
+			if (entry != null && isExpired(entry, System.nanoTime())) {
+				removeEntry(key);
+				mExpirations++;
+				entry = null;
+			}
+			if (entry == null) {
+				mMisses++;
+				return null;
+			}
+			mHits++;
+			return entry.result;
+		}
+	}
+
+	/**
+	 * Store a result in the cache. If the weight of the cache exceeds the
+	 * maximum weight the least recently used results will be evicted
+	 * 
+	 * @param key
+	 *            The cache key
+	 * @param result
+	 *            The result to cache
+	 * @param weight
+	 *            The weight of this result
+	 */
+	public void put(Object key, TaskResult result, int weight) {
+		if (weight > mMaxWeight) {
+			return;
+		}
+		synchronized (mLock) {
+			removeEntry(key);
+			CacheEntry entry = new CacheEntry();
+			entry.result = result;
+			entry.weight = weight;
+			entry.time = System.nanoTime();
+			mEntries.put(key, entry);
+			mWeight += weight;
+			trim();
+		}
+	}
+
+	/**
+	 * Remove the cached result for this key
+	 * 
+	 * @param key
+	 *            The cache key
+	 */
+	public void invalidate(Object key) {
+		synchronized (mLock) {
+			removeEntry(key);
+		}
+	}
+
+	/**
+	 * Remove all the cached results
+	 */
+	public void clear() {
+		synchronized (mLock) {
+			mEntries.clear();
+			mWeight = 0;
+		}
+	}
+
+	/**
+	 * Define the maximum sum of the weights of the cached results
+	 * 
+	 * @param maxWeight
+	 *            The new maximum weight
+	 */
+	public void setMaxWeight(long maxWeight) {
+		synchronized (mLock) {
+			mMaxWeight = maxWeight;
+			trim();
+		}
+	}
+
+	/**
+	 * Get the maximum sum of the weights of the cached results
+	 * 
+	 * @return The maximum weight
+	 */
+	public long getMaxWeight() {
+		return mMaxWeight;
+	}
+
+	/**
+	 * Define the time to live of the results
+	 * 
+	 * @param ttl
+	 *            The time in milliseconds, or {@link #NO_TTL}
+	 */
+	public void setTtl(long ttl) {
+		mTtl = ttl;
+	}
+
+	/**
+	 * Get the time to live of the results
+	 * 
+	 * @return The time in milliseconds, or {@link #NO_TTL}
+	 */
+	public long getTtl() {
+		return mTtl;
+	}
+
+	/**
+	 * Get the current sum of the weights of the cached results
+	 * 
+	 * @return The current weight
+	 */
+	public long getWeight() {
+		synchronized (mLock) {
+			return mWeight;
+		}
+	}
+
+	/**
+	 * Get the number of cached results
+	 * 
+	 * @return The number of results
+	 */
+	public int size() {
+		synchronized (mLock) {
+			return mEntries.size();
+		}
+	}
+
+	/**
+	 * Get how many times a task has been resolved using the cache
+	 * 
+	 * @return Number of hits
+	 */
+	public long getHitCount() {
+		synchronized (mLock) {
+			return mHits;
+		}
+	}
+
+	/**
+	 * Get how many times a task has not been found in the cache
+	 * 
+	 * @return Number of misses
+	 */
+	public long getMissCount() {
+		synchronized (mLock) {
+			return mMisses;
+		}
+	}
+
+	/**
+	 * Get how many misses have waited for a task with the same key that was
+	 * already running instead of being executed
+	 * 
+	 * @return Number of shared misses
+	 */
+	public long getSharedMissCount() {
+		synchronized (mLock) {
+			return mSharedMisses;
+		}
+	}
+
+	/**
+	 * Get how many results have been evicted to respect the maximum weight
+	 * 
+	 * @return Number of evictions
+	 */
+	public long getEvictionCount() {
+		synchronized (mLock) {
+			return mEvictions;
+		}
+	}
+
+	/**
+	 * Get how many results have been removed because their time to live has
+	 * expired
+	 * 
+	 * @return Number of expired results
+	 */
+	public long getExpirationCount() {
+		synchronized (mLock) {
+			return mExpirations;
+		}
+	}
+
+	/**
+	 * Get the ratio between hits and lookups
+	 * 
+	 * @return The hit ratio, from 0 to 1
+	 */
+	public float getHitRatio() {
+		synchronized (mLock) {
+			long total = mHits + mMisses;
+			return total == 0 ? 0 : (float) mHits / total;
+		}
+	}
+
+	/**
+	 * Reset all the counters
+	 */
+	public void resetMetrics() {
+		synchronized (mLock) {
+			mHits = 0;
+			mMisses = 0;
+			mSharedMisses = 0;
+			mEvictions = 0;
+			mExpirations = 0;
+		}
+	}
+
+	/**
+	 * Register a task that missed the cache. If an other task with the same
+	 * key is already being executed, this task will wait for its result
+	 * 
+	 * @param key
+	 *            The cache key
+	 * @param task
+	 *            The task that missed the cache
+	 * @return true if the task has to wait for an other one, false if it has
+	 *         to be executed
+	 */
+	boolean joinInFlight(Object key, BaseTask task) {
+		synchronized (mLock) {
+			InFlight inFlight = mInFlight.get(key);
+			if (inFlight == null) {
+				inFlight = new InFlight();
+				inFlight.leader = task;
+				mInFlight.put(key, inFlight);
+				return false;
+			}
+			if (inFlight.leader == task) {
+				// Queued again (for instance to retry), it is still the leader
+				return false;
+			}
+			inFlight.waiting.add(task);
+			mSharedMisses++;
+			return true;
+		}
+	}
+
+	/**
+	 * Notify that the task executed for this key has finished, or that it
+	 * won't be executed
+	 * 
+	 * @param key
+	 *            The cache key
+	 * @param task
+	 *            The task
+	 * @return The tasks that were waiting for the result, or null if the task
+	 *         was not the one being executed for this key
+	 */
+	List<BaseTask> completeInFlight(Object key, BaseTask task) {
+		synchronized (mLock) {
+			InFlight inFlight = mInFlight.get(key);
+			if (inFlight == null || inFlight.leader != task) {
+				return null;
+			}
+			mInFlight.remove(key);
+			return inFlight.waiting;
+		}
+	}
+
+	/**
+	 * Check if there are tasks waiting for the result of an other task
+	 */
+	boolean hasInFlightWaiters() {
+		synchronized (mLock) {
+			for (InFlight inFlight : mInFlight.values()) {
+				if (inFlight.waiting.size() != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Forget all the tasks being executed
+	 * 
+	 * @return The tasks that were waiting for their results
+	 */
+	List<BaseTask> clearInFlight() {
+		synchronized (mLock) {
+			ArrayList<BaseTask> waiting = new ArrayList<BaseTask>();
+			for (InFlight inFlight : mInFlight.values()) {
+				waiting.addAll(inFlight.waiting);
+			}
+			mInFlight.clear();
+			return waiting;
+		}
+	}
+
+	private boolean isExpired(CacheEntry entry, long now) {
+		return mTtl > NO_TTL && now - entry.time > mTtl * 1000000L;
+	}
+
+	private void removeEntry(Object key) {
+		CacheEntry entry = mEntries.remove(key);
+		if (entry != null) {
+			mWeight -= entry.weight;
+		}
+	}
+
+	private void trim() {
+		if (mWeight <= mMaxWeight) {
+			return;
+		}
+		long now = System.nanoTime();
+		Iterator<CacheEntry> it = mEntries.values().iterator();
+		// First remove the expired results, then the least recently used
+		while (it.hasNext() && mWeight > mMaxWeight) {
+			CacheEntry entry = it.next();
+			if (isExpired(entry, now)) {
+				it.remove();
+				mWeight -= entry.weight;
+				mExpirations++;
+			}
+		}
+		it = mEntries.values().iterator();
+		while (it.hasNext() && mWeight > mMaxWeight) {
+			CacheEntry entry = it.next();
+			it.remove();
+			mWeight -= entry.weight;
+			mEvictions++;
+		}
+	}
+
+	private static class CacheEntry {
+		TaskResult result;
+		int weight;
+		long time;
+	}
+
+	private static class InFlight {
+		BaseTask leader;
+		final ArrayList<BaseTask> waiting = new ArrayList<BaseTask>(1);
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the results of the tasks of a {@link TaskExecutor} to
+ * {@link TaskResultSubscriber}'s, see {@link TaskExecutor#getResultPublisher()}.
+ * It works like a Reactive Streams publisher with backpressure: each
+ * subscriber receives only what it has requested, and the results that
+ * arrive meanwhile wait in a buffer. When the buffer is full the oldest
+ * result is dropped, so a slow subscriber never blocks the threads of the
+ * pool.
+ */
+public class TaskResultPublisher {
+
+	/** Default number of results buffered for each subscriber */
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+
+	private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<Subscription>();
+	private volatile boolean mCompleted;
+
+	TaskResultPublisher() {
+	}
+
+	/**
+	 * Subscribe with a buffer of {@link #DEFAULT_BUFFER_SIZE} results
+	 * 
+	 * @param subscriber
+	 *            The subscriber
+	 */
+	public void subscribe(TaskResultSubscriber subscriber) {
+		subscribe(subscriber, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Subscribe to the results of the tasks that finish from now on
+	 * 
+	 * @param subscriber
+	 *            The subscriber
+	 * @param bufferSize
+	 *            Maximum number of results waiting to be requested
+	 */
+	public void subscribe(TaskResultSubscriber subscriber, int bufferSize) {
+		Subscription subscription = new Subscription(this, subscriber, Math.max(bufferSize, 1));
+		subscriber.onSubscribe(subscription);
+		if (subscription.isCancelled()) {
+			return;
+		}
+		mSubscriptions.add(subscription);
+		if (mCompleted) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * Get the number of subscribers
+	 * 
+	 * @return Number of subscribers
+	 */
+	public int getSubscriberCount() {
+		return mSubscriptions.size();
+	}
+
+	void publish(TaskResult result) {
+		for (Subscription subscription : mSubscriptions) {
+			subscription.offer(result);
+		}
+	}
+
+	void complete() {
+		mCompleted = true;
+		for (Subscription subscription : mSubscriptions) {
+			subscription.complete();
+		}
+	}
+
+	void remove(Subscription subscription) {
+		mSubscriptions.remove(subscription);
+	}
+
+	private static final class Subscription implements TaskResultSubscription {
+
+		private final TaskResultPublisher mPublisher;
+		private final TaskResultSubscriber mSubscriber;
+		/* Ring buffer, guarded by itself */
+		private final TaskResult[] mBuffer;
+		private int mHead;
+		private int mSize;
+		private long mDropped;
+		private final AtomicLong mRequested = new AtomicLong();
+		/* Serializes the calls to the subscriber */
+		private final AtomicInteger mWip = new AtomicInteger();
+		private volatile boolean mCancelled;
+		private volatile boolean mCompleted;
+		private boolean mTerminated;
+
+		Subscription(TaskResultPublisher publisher, TaskResultSubscriber subscriber,
+				int bufferSize) {
+			mPublisher = publisher;
+			mSubscriber = subscriber;
+			mBuffer = new TaskResult[bufferSize];
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				mSubscriber.onError(new IllegalArgumentException(
+						"The number of requested results must be positive: " + n));
+				return;
+			}
+			long requested;
+			long next;
+			do {
+				requested = mRequested.get();
+				next = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+			} while (!mRequested.compareAndSet(requested, next));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			mCancelled = true;
+			mPublisher.remove(this);
+			synchronized (mBuffer) {
+				for (int i = 0; i < mBuffer.length; i++) {
+					mBuffer[i] = null;
+				}
+				mSize = 0;
+			}
+		}
+
+		@Override
+		public long getDroppedCount() {
+			synchronized (mBuffer) {
+				return mDropped;
+			}
+		}
+
+		boolean isCancelled() {
+			return mCancelled;
+		}
+
+		void offer(TaskResult result) {
+			synchronized (mBuffer) {
+				if (mSize == mBuffer.length) {
+					// Drop the oldest one
+					mBuffer[mHead] = null;
+					mHead = (mHead + 1) % mBuffer.length;
+					mSize--;
+					mDropped++;
+				}
+				mBuffer[(mHead + mSize) % mBuffer.length] = result;
+				mSize++;
+			}
+			drain();
+		}
+
+		void complete() {
+			mCompleted = true;
+			drain();
+		}
+
+		private TaskResult poll() {
+			synchronized (mBuffer) {
+				if (mSize == 0) {
+					return null;
+				}
+				TaskResult result = mBuffer[mHead];
+				mBuffer[mHead] = null;
+				mHead = (mHead + 1) % mBuffer.length;
+				mSize--;
+				return result;
+			}
+		}
+
+		private boolean isEmpty() {
+			synchronized (mBuffer) {
+				return mSize == 0;
+			}
+		}
+
+		private void drain() {
+			if (mWip.getAndIncrement() != 0) {
+				// The thread that is draining will do it
+				return;
+			}
+			do {
+				while (!mCancelled && !mTerminated && mRequested.get() > 0) {
+					TaskResult result = poll();
+					if (result == null) {
+						break;
+					}
+					if (mRequested.get() != Long.MAX_VALUE) {
+						mRequested.decrementAndGet();
+					}
+					mSubscriber.onNext(result);
+				}
+				if (mCompleted && !mCancelled && !mTerminated && isEmpty()) {
+					mTerminated = true;
+					mPublisher.remove(this);
+					mSubscriber.onComplete();
+				}
+			} while (mWip.decrementAndGet() != 0);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Receives the {@link TaskResult}'s from a {@link TaskResultPublisher}. It
+ * follows the Reactive Streams contract: nothing is delivered until it is
+ * requested with {@link TaskResultSubscription#request(long)}, and the
+ * methods are never called concurrently. They are called in the thread that
+ * finishes the task or that requests more results.
+ */
+public interface TaskResultSubscriber {
+
+	/**
+	 * Called once, before any other method
+	 * 
+	 * @param subscription
+	 *            Use it to request the results or to cancel
+	 */
+	public void onSubscribe(TaskResultSubscription subscription);
+
+	/**
+	 * Called for each requested result
+	 * 
+	 * @param result
+	 *            The result of a finished task
+	 */
+	public void onNext(TaskResult result);
+
+	/**
+	 * Called when the subscription fails, no more methods are called after
+	 * it
+	 * 
+	 * @param error
+	 *            The reason
+	 */
+	public void onError(Throwable error);
+
+	/**
+	 * Called when the {@link TaskExecutor} has terminated and all the results
+	 * have been delivered
+	 */
+	public void onComplete();
+
+}
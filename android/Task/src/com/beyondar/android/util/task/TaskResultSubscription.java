@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+/**
+ * Link between a {@link TaskResultPublisher} and a
+ * {@link TaskResultSubscriber}
+ */
+public interface TaskResultSubscription {
+
+	/**
+	 * Request more results. They are delivered as soon as the tasks finish
+	 * 
+	 * @param n
+	 *            Number of results, Long.MAX_VALUE for all of them
+	 */
+	public void request(long n);
+
+	/**
+	 * Stop receiving results
+	 */
+	public void cancel();
+
+	/**
+	 * Get how many results have been discarded because the subscriber didn't
+	 * request them fast enough
+	 * 
+	 * @return Number of results
+	 */
+	public long getDroppedCount();
+
+}
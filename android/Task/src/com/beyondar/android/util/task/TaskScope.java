@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A {@link TaskGroup} bound to the lifecycle of an owner, usually an
+ * Activity or a Fragment. The owner is only weakly referenced, and when it is
+ * destroyed (call {@link #destroy()} from its onDestroy()) or collected, the
+ * queued tasks of the scope are removed before being executed, without
+ * calling onFinish() nor onKillTask(). The running tasks are cancelled.<br>
+ * The tasks themselves must not reference the owner, otherwise the owner is
+ * kept alive until they finish: use static classes and {@link LifecycleTask}
+ * to get the owner back in the callbacks.
+ */
+public class TaskScope extends TaskGroup {
+
+	private final WeakReference<Object> mOwner;
+	private volatile boolean mDestroyed;
+
+	/**
+	 * Create a scope without concurrency limit
+	 * 
+	 * @param owner
+	 *            The owner of the tasks, it is weakly referenced
+	 */
+	public TaskScope(Object owner) {
+		this(owner, UNLIMITED);
+	}
+
+	/**
+	 * Create a scope
+	 * 
+	 * @param owner
+	 *            The owner of the tasks, it is weakly referenced
+	 * @param maxConcurrency
+	 *            The maximum number of tasks of this scope running at the same
+	 *            time, or {@link #UNLIMITED}
+	 */
+	public TaskScope(Object owner, int maxConcurrency) {
+		super(owner.getClass().getSimpleName(), maxConcurrency);
+		mOwner = new WeakReference<Object>(owner);
+	}
+
+	/**
+	 * Get the owner of the scope
+	 * 
+	 * @return The owner, or null if it has been destroyed or collected
+	 */
+	public Object getOwner() {
+		return mDestroyed ? null : mOwner.get();
+	}
+
+	/**
+	 * Destroy the scope: the queued tasks are removed and the running ones are
+	 * cancelled. Call this method from the onDestroy() of the owner. The scope
+	 * can't be used anymore
+	 */
+	public void destroy() {
+		mDestroyed = true;
+		mOwner.clear();
+		cancelAll();
+	}
+
+	/**
+	 * Check if the scope has been destroyed or its owner has been collected
+	 * 
+	 * @return true if the tasks of the scope won't run
+	 */
+	public boolean isDestroyed() {
+		return !isActive();
+	}
+
+	@Override
+	boolean isActive() {
+		return !mDestroyed && mOwner.get() != null;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 BeyondAR
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.beyondar.android.util.task;
+
+import java.util.ArrayList;
+
+/**
+ * Maximum number of threads shared by several {@link TaskExecutor}'s. Each
+ * executor keeps its own queues, history and maximum number of threads, but
+ * all together never have more live threads than the budget. Each executor
+ * can reserve a minimum number of threads that the others can't take.<br>
+ * When an executor has tasks waiting and the budget is exhausted, an idle
+ * thread of an other executor is stopped, so the free capacity goes to the
+ * executor that needs it.
+ *
+ * <pre>
+ * ThreadBudget budget = new ThreadBudget(Runtime.getRuntime().availableProcessors() * 2);
+ * mapExecutor.setThreadBudget(budget, 2);
+ * downloadExecutor.setThreadBudget(budget, 1);
+ * </pre>
+ */
+public class ThreadBudget {
+
+	private final int mMaxThreads;
+	private final ArrayList<Member> mMembers = new ArrayList<Member>();
+	/* Sum of max(minThreads, liveThreads) of all the members */
+	private int mCommitted;
+	private int mLiveThreads;
+
+	/**
+	 * Create a budget
+	 *
+	 * @param maxThreads
+	 *            The maximum number of live threads of all the executors
+	 */
+	public ThreadBudget(int maxThreads) {
+		if (maxThreads <= 0) {
+			throw new IllegalArgumentException("maxThreads must be positive");
+		}
+		mMaxThreads = maxThreads;
+	}
+
+	/**
+	 * Get the maximum number of live threads of all the executors
+	 *
+	 * @return Maximum number of threads
+	 */
+	public int getMaxThreads() {
+		return mMaxThreads;
+	}
+
+	/**
+	 * Get the number of live threads of all the executors
+	 *
+	 * @return Number of threads
+	 */
+	public synchronized int getLiveThreads() {
+		return mLiveThreads;
+	}
+
+	/**
+	 * Get the number of threads that can be created without stopping idle
+	 * threads
+	 *
+	 * @return Number of threads
+	 */
+	public synchronized int getAvailableThreads() {
+		return mMaxThreads - mCommitted;
+	}
+
+	/**
+	 * Add a pool to the budget
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the minimum threads of all the pools exceed the budget
+	 */
+	synchronized Member register(PoolThreads pool, int minThreads, int liveThreads) {
+		int reserved = 0;
+		for (int i = 0; i < mMembers.size(); i++) {
+			reserved += mMembers.get(i).minThreads;
+		}
+		if (reserved + minThreads > mMaxThreads) {
+			throw new IllegalArgumentException("The budget of " + mMaxThreads
+					+ " threads can't reserve " + minThreads + " more threads, "
+					+ reserved + " are already reserved");
+		}
+		Member member = new Member(this, pool, minThreads);
+		member.liveThreads = liveThreads;
+		mMembers.add(member);
+		mCommitted += member.committed();
+		mLiveThreads += liveThreads;
+		return member;
+	}
+
+	synchronized void unregister(Member member) {
+		if (mMembers.remove(member)) {
+			mCommitted -= member.committed();
+			mLiveThreads -= member.liveThreads;
+		}
+	}
+
+	/**
+	 * Try to get a thread for the pool. If there is no budget, the pool is
+	 * notified when an other pool releases a thread
+	 *
+	 * @return true if the pool can create a new thread
+	 */
+	synchronized boolean tryAcquire(Member member) {
+		boolean reserved = member.liveThreads < member.minThreads;
+		if (!reserved && mCommitted >= mMaxThreads) {
+			member.waiting = true;
+			return false;
+		}
+		mCommitted -= member.committed();
+		member.liveThreads++;
+		mCommitted += member.committed();
+		mLiveThreads++;
+		return true;
+	}
+
+	/**
+	 * Notify that a thread of the pool has stopped
+	 */
+	void release(Member member) {
+		ArrayList<PoolThreads> waiting = null;
+		synchronized (this) {
+			if (!mMembers.contains(member)) {
+				return;
+			}
+			mCommitted -= member.committed();
+			member.liveThreads--;
+			mCommitted += member.committed();
+			mLiveThreads--;
+			for (int i = 0; i < mMembers.size(); i++) {
+				Member other = mMembers.get(i);
+				if (other.waiting && other != member) {
+					other.waiting = false;
+					if (waiting == null) {
+						waiting = new ArrayList<PoolThreads>();
+					}
+					waiting.add(other.pool);
+				}
+			}
+		}
+		if (waiting != null) {
+			for (int i = 0; i < waiting.size(); i++) {
+				waiting.get(i).onBudgetAvailable();
+			}
+		}
+	}
+
+	/**
+	 * Check if a thread of the pool that has finished a task should be
+	 * stopped because an other pool is waiting for the budget
+	 */
+	synchronized boolean shouldGiveAway(Member member) {
+		if (member.liveThreads <= member.minThreads) {
+			return false;
+		}
+		for (int i = 0; i < mMembers.size(); i++) {
+			Member other = mMembers.get(i);
+			if (other.waiting && other != member) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stop an idle thread of an other pool, so the budget can be used by the
+	 * pool that needs it. Only the pools with more threads than their
+	 * minimum give away their threads
+	 *
+	 * @return true if a thread has been stopped
+	 */
+	boolean reclaimIdleThread(Member member) {
+		ArrayList<PoolThreads> donors = new ArrayList<PoolThreads>();
+		synchronized (this) {
+			for (int i = 0; i < mMembers.size(); i++) {
+				Member other = mMembers.get(i);
+				if (other != member && other.liveThreads > other.minThreads) {
+					donors.add(other.pool);
+				}
+			}
+		}
+		// Don't hold the lock, stopping the thread calls release()
+		for (int i = 0; i < donors.size(); i++) {
+			if (donors.get(i).stopIdleThread()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static final class Member {
+		final ThreadBudget budget;
+		final PoolThreads pool;
+		final int minThreads;
+		int liveThreads;
+		boolean waiting;
+
+		Member(ThreadBudget budget, PoolThreads pool, int minThreads) {
+			this.budget = budget;
+			this.pool = pool;
+			this.minThreads = minThreads;
+		}
+
+		int committed() {
+			return Math.max(minThreads, liveThreads);
+		}
+	}
+
+}